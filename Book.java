@@ -3,18 +3,21 @@ class Book {
     private final String author;
     private final String isbn;   
     private final int copies;
+    private final String titleKey;   // lowercased title, computed once for sorting and keyword search
 
     public Book(String title, String author, String isbn, int copies) {
         this.title = title;
         this.author = author;
         this.isbn = isbn;
         this.copies = copies;
+        this.titleKey = title.toLowerCase();
     }
 
     public String getTitle() { return title; }
     public String getAuthor() { return author; }
     public String getIsbn() { return isbn; }
     public int getCopies() { return copies; }
+    public String getTitleKey() { return titleKey; }
 
     
     public String toCatalogLine() {
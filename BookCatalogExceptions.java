@@ -3,6 +3,11 @@ class BookCatalogException extends Exception {
     public BookCatalogException(String message) {
         super(message);
     }
+
+    // No stack trace and no suppression, so a single instance can be thrown over and over
+    protected BookCatalogException(String message, boolean stackless) {
+        super(message, null, !stackless, !stackless);
+    }
 }
 
 // ISBN not 13 digits or contains non-numeric characters
@@ -10,6 +15,14 @@ class InvalidISBNException extends BookCatalogException {
     public InvalidISBNException(String message) {
         super(message);
     }
+
+    static InvalidISBNException shared(String message) {
+        return new InvalidISBNException(message, true);
+    }
+
+    private InvalidISBNException(String message, boolean stackless) {
+        super(message, stackless);
+    }
 }
 
 // More than one book with same ISBN found
@@ -24,6 +37,14 @@ class MalformedBookEntryException extends BookCatalogException {
     public MalformedBookEntryException(String message) {
         super(message);
     }
+
+    static MalformedBookEntryException shared(String message) {
+        return new MalformedBookEntryException(message, true);
+    }
+
+    private MalformedBookEntryException(String message, boolean stackless) {
+        super(message, stackless);
+    }
 }
 
 // Less than 2 command line arguments
@@ -38,4 +59,11 @@ class InvalidFileNameException extends BookCatalogException {
     public InvalidFileNameException(String message) {
         super(message);
     }
+}
+
+// Unrecognised "--" option before the catalog argument
+class InvalidOptionException extends BookCatalogException {
+    public InvalidOptionException(String message) {
+        super(message);
+    }
 }
\ No newline at end of file
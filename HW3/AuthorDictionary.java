@@ -0,0 +1,38 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load-time author dictionary: every record with the same author ends up sharing one String
+// instance, so a catalog that repeats an author 10k times keeps one copy of the name instead
+// of 10k. Safe to call from the parallel loader's worker threads.
+class AuthorDictionary {
+    private static final ConcurrentHashMap<String, String> CANONICAL = new ConcurrentHashMap<>();
+    private static final LongAdder DUPLICATES = new LongAdder();
+    private static final LongAdder BYTES_SAVED = new LongAdder();
+
+    private AuthorDictionary() {}
+
+    static String canonical(String author) {
+        String existing = CANONICAL.putIfAbsent(author, author);
+        if (existing == null) return author;
+
+        DUPLICATES.increment();
+        BYTES_SAVED.add(retainedSize(author));
+        return existing;
+    }
+
+    static long duplicatesShared() {
+        return DUPLICATES.sum();
+    }
+
+    static long bytesSaved() {
+        return BYTES_SAVED.sum();
+    }
+
+    // String header + byte[] header + payload, 8-byte aligned (compressed oops, compact strings)
+    private static long retainedSize(String s) {
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; i++) latin1 = s.charAt(i) < 256;
+        long payload = latin1 ? s.length() : 2L * s.length();
+        return 24 + ((16 + payload + 7) & ~7L);
+    }
+}
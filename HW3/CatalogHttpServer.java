@@ -0,0 +1,239 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Embedded HTTP front end (--http=PORT) over the in-memory catalog, next to or instead of the
+// line-based CatalogServer:
+//   GET  /isbn/<isbn>          the book with that ISBN (409 if more than one has it)
+//   GET  /search?q=<keyword>   books whose title contains the keyword, in catalog order
+//   POST /books                body is one Title:Author:ISBN:Copies record; 201 with the new book
+// Rows are a JSON array by default, or the fixed-width table the command line prints with
+// ?format=text or "Accept: text/plain". Failures are {"error": "..."} (or an "Error: ..." line)
+// and go to errors.log exactly like a failed command-line operation.
+class CatalogHttpServer {
+    private final Path catalogPath;
+    private final Path logPath;
+    private final ConcurrentCatalog catalog;
+    private final LibraryBookTracker.Stats totals;
+    private final LibraryBookTracker.Options options;
+
+    CatalogHttpServer(Path catalogPath, Path logPath, ConcurrentCatalog catalog, LibraryBookTracker.Stats totals,
+                      LibraryBookTracker.Options options) {
+        this.catalogPath = catalogPath;
+        this.logPath = logPath;
+        this.catalog = catalog;
+        this.totals = totals;
+        this.options = options;
+    }
+
+    // Returns once the server is accepting; requests are handled on a pool of --workers threads
+    // (one per processor by default)
+    void start(int port) throws IOException {
+        ErrorLogger.closeOnShutdown();
+
+        int threads = (options.workers > 1) ? options.workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(threads,
+                r -> new Thread(r, "Http-" + threadCount.incrementAndGet())));
+        server.start();
+        System.out.println("[Main] HTTP on " + server.getAddress().getAddress().getHostAddress() + ":"
+                + server.getAddress().getPort() + " (" + threads + " threads), "
+                + catalog.current().books.size() + " records");
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        boolean text = wantsText(ex);
+        try {
+            String method = ex.getRequestMethod();
+            String path = ex.getRequestURI().getPath();
+
+            if (path.startsWith("/isbn/")) {
+                if (!method.equals("GET")) {
+                    sendError(ex, 405, "Use GET for " + path, text);
+                } else {
+                    lookupIsbn(ex, path.substring("/isbn/".length()), text);
+                }
+            } else if (path.equals("/search")) {
+                String keyword = queryParameter(ex, "q");
+                if (!method.equals("GET")) {
+                    sendError(ex, 405, "Use GET for /search", text);
+                } else if (keyword == null || keyword.isEmpty()) {
+                    sendError(ex, 400, "Missing query parameter q", text);
+                } else {
+                    ConcurrentCatalog.Snapshot snap = catalog.current();
+                    List<Book> matches = snap.titleIndex.search(snap.books, keyword.toLowerCase());
+                    totals.searchResults.add(matches.size());
+                    sendRows(ex, 200, matches, text);
+                }
+            } else if (path.equals("/books")) {
+                if (!method.equals("POST")) {
+                    sendError(ex, 405, "Use POST for /books", text);
+                } else {
+                    add(ex, new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim(), text);
+                }
+            } else {
+                sendError(ex, 404, "No such endpoint: " + path, text);
+            }
+
+        } catch (Exception e) {
+            totals.errorsEncountered.increment();
+            try { LibraryBookTracker.logError(logPath, "Unexpected error", e); } catch (Exception ignored) {}
+            sendError(ex, 500, "Unexpected failure - " + e.getMessage(), text);
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void lookupIsbn(HttpExchange ex, String isbn, boolean text) throws IOException {
+        try {
+            if (!LibraryBookTracker.isExactly13Digits(isbn)) throw LibraryBookTracker.BAD_ISBN;
+
+            ConcurrentCatalog.Snapshot snap = catalog.current();
+            List<Book> matches = LibraryBookTracker.lookupIsbn(snap.books, snap.isbnIndex, isbn);
+            if (matches.size() > 1) {
+                throw new DuplicateISBNException("More than one book with this ISBN was found: " + isbn);
+            }
+            totals.searchResults.add(matches.size());
+            sendRows(ex, 200, matches, text);
+
+        } catch (BookCatalogException e) {
+            totals.errorsEncountered.increment();
+            try { LibraryBookTracker.logError(logPath, isbn, e); } catch (Exception ignored) {}
+            sendError(ex, (e instanceof DuplicateISBNException) ? 409 : 400, e.getMessage(), text);
+        }
+    }
+
+    // Validated before taking the write lock, so a bad record never costs a catalog copy. A body
+    // holding a line break would be written to the catalog as more than one line.
+    private void add(HttpExchange ex, String record, boolean text) throws IOException {
+        Book newBook;
+        try {
+            if (record.indexOf('\n') >= 0 || record.indexOf('\r') >= 0) {
+                throw new MalformedBookEntryException("Book entry must be a single line");
+            }
+            newBook = LibraryBookTracker.parseAndValidateBookRecord(record);
+        } catch (BookCatalogException e) {
+            totals.errorsEncountered.increment();
+            try { LibraryBookTracker.logError(logPath, record, e); } catch (Exception ignored) {}
+            sendError(ex, 400, e.getMessage(), text);
+            return;
+        }
+
+        try {
+            catalog.update(copy -> {
+                try {
+                    LibraryBookTracker.addToCatalog(catalogPath, logPath, copy.books, copy.isbnIndex,
+                            copy.titleIndex, options, newBook);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            totals.errorsEncountered.increment();
+            try { LibraryBookTracker.logError(logPath, "I/O operation", e.getCause()); } catch (Exception ignored) {}
+            sendError(ex, 500, "I/O failure - " + e.getCause().getMessage(), text);
+            return;
+        }
+        totals.booksAdded.increment();
+        sendRows(ex, 201, List.of(newBook), text);
+    }
+
+    private static boolean wantsText(HttpExchange ex) {
+        if ("text".equals(queryParameter(ex, "format"))) return true;
+        String accept = ex.getRequestHeaders().getFirst("Accept");
+        return accept != null && accept.startsWith("text/plain");
+    }
+
+    private static String queryParameter(HttpExchange ex, String name) {
+        String query = ex.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = (eq < 0) ? pair : pair.substring(0, eq);
+            if (URLDecoder.decode(key, StandardCharsets.UTF_8).equals(name)) {
+                return (eq < 0) ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void sendRows(HttpExchange ex, int status, List<Book> rows, boolean text) throws IOException {
+        if (text) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+            LibraryBookTracker.printHeader(out);
+            for (Book b : rows) LibraryBookTracker.printBookRow(out, b);
+            out.flush();
+            send(ex, status, "text/plain; charset=utf-8", buffer.toByteArray());
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(64 + rows.size() * 96).append('[');
+        for (int i = 0; i < rows.size(); i++) {
+            Book b = rows.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"title\":");
+            appendJsonString(json, b.getTitle());
+            json.append(",\"author\":");
+            appendJsonString(json, b.getAuthor());
+            json.append(",\"isbn\":");
+            appendJsonString(json, b.getIsbn());
+            json.append(",\"copies\":").append(b.getCopies()).append('}');
+        }
+        json.append("]\n");
+        send(ex, status, "application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendError(HttpExchange ex, int status, String message, boolean text) throws IOException {
+        if (text) {
+            send(ex, status, "text/plain; charset=utf-8",
+                    ("Error: " + message + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendJsonString(json, message);
+        json.append("}\n");
+        send(ex, status, "application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange ex, int status, String contentType, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                    else json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Long-running mode (--serve=PORT): the catalog and its indexes are loaded once and stay in
+// memory, and every line a local client sends is run as one operation, exactly as if it had
+// been the <operation> argument. The reply is the table (or "Error: ..." line) the command line
+// would print, followed by one empty line.
+// Clients are served concurrently: lookups and searches run on the current ConcurrentCatalog
+// snapshot without locking, and adds are applied to a copy that replaces it when done.
+class CatalogServer {
+    private final Path catalogPath;
+    private final Path logPath;
+    private final ConcurrentCatalog catalog;
+    private final LibraryBookTracker.Stats totals;
+    private final LibraryBookTracker.Options options;
+
+    CatalogServer(Path catalogPath, Path logPath, ConcurrentCatalog catalog, LibraryBookTracker.Stats totals,
+                  LibraryBookTracker.Options options) {
+        this.catalogPath = catalogPath;
+        this.logPath = logPath;
+        this.catalog = catalog;
+        this.totals = totals;
+        this.options = options;
+    }
+
+    void serve(int port) throws IOException {
+        ErrorLogger.closeOnShutdown();
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("[Main] Serving " + catalog.current().books.size() + " records on "
+                    + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort());
+
+            int clients = 0;
+            while (true) {
+                Socket client = server.accept();
+                Thread t = new Thread(() -> handle(client), "Client-" + (++clients));
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        String name = Thread.currentThread().getName();
+        System.out.println("[" + name + "] connected");
+        try (client;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(
+                     new BufferedOutputStream(client.getOutputStream()), false, StandardCharsets.UTF_8)) {
+
+            String op;
+            while ((op = in.readLine()) != null) {
+                if (op.isBlank()) continue;
+
+                Book newBook = LibraryBookTracker.looksLikeNewRecord(op) ? validRecord(op) : null;
+                if (newBook != null) {
+                    add(newBook, out);
+                } else {
+                    execute(catalog.current(), op, out);
+                }
+                out.println();
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("[" + name + "] connection error: " + e.getMessage());
+        }
+        System.out.println("[" + name + "] disconnected");
+    }
+
+    // A record that fails validation is rejected on the current snapshot, with the same error,
+    // instead of costing a catalog copy under the write lock
+    private static Book validRecord(String op) {
+        try {
+            return LibraryBookTracker.parseAndValidateBookRecord(op);
+        } catch (BookCatalogException e) {
+            return null;
+        }
+    }
+
+    // Same output as the add operation. A failed write escapes update(), so the copy holding the
+    // unwritten record is never published.
+    private void add(Book newBook, PrintStream out) {
+        try {
+            catalog.update(copy -> {
+                try {
+                    LibraryBookTracker.addToCatalog(catalogPath, logPath, copy.books, copy.isbnIndex,
+                            copy.titleIndex, options, newBook);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            totals.errorsEncountered.increment();
+            try { LibraryBookTracker.logError(logPath, "I/O operation", e.getCause()); } catch (Exception ignored) {}
+            out.println("Error: I/O failure - " + e.getCause().getMessage());
+            return;
+        }
+        totals.booksAdded.increment();
+        LibraryBookTracker.printHeader(out);
+        LibraryBookTracker.printBookRow(out, newBook);
+    }
+
+    private void execute(ConcurrentCatalog.Snapshot snapshot, String op, PrintStream out) {
+        new LibraryBookTracker.OperationAnalyzerTask(catalogPath, logPath, snapshot.books, snapshot.isbnIndex,
+                snapshot.titleIndex, totals, options, op).execute(out);
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+// Binary copy of the validated, title-sorted catalog, kept next to it as "<catalog>.snap".
+// The header records the size, mtime and a sampled checksum of the text file it was built
+// from; when all three still match, FileReaderTask maps the snapshot instead of parsing and
+// sorting the text again. When the file has only grown and a CRC of all of its first
+// sourceSize bytes still matches, sourceSize doubles as a checkpoint: only the lines after it
+// need parsing. Anything else (missing, stale, truncated, bad CRC) just means "no snapshot"
+// and the caller falls back to the normal load.
+//
+// Layout (big-endian):
+//   int magic, int version
+//   long sourceSize, long sourceMtime, long sourceChecksum, long sourceCrc, byte sourceEndsWithLineBreak
+//   int recordCount, int rejectedCount
+//   recordCount x { string title, string author, isbn, int copies }
+//   long crc32c of the records
+// where a string is an int byte length followed by UTF-8, and an isbn is a tag byte followed
+// by either a packed long (tag 0) or a string (tag 1, for ISBNs written with non-ASCII digits).
+class CatalogSnapshot {
+    private static final int MAGIC = 0x4C425453;   // "LBTS"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8 + 1 + 4 + 4;
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    // Two string lengths, the ISBN tag, the shortest ISBN (a string length) and copies
+    private static final int MIN_RECORD_SIZE = 4 + 4 + 1 + 4 + 4;
+
+    private static final byte ISBN_PACKED = 0;
+    private static final byte ISBN_TEXT = 1;
+
+    static class Loaded {
+        final List<Book> books;
+        final int rejectedCount;   // invalid lines in the source; errors.log already has them
+        final long tailOffset;     // where unparsed appended lines start, or -1 if there are none
+
+        Loaded(List<Book> books, int rejectedCount, long tailOffset) {
+            this.books = books;
+            this.rejectedCount = rejectedCount;
+            this.tailOffset = tailOffset;
+        }
+    }
+
+    static Path snapshotPath(Path catalogPath) {
+        return catalogPath.resolveSibling(catalogPath.getFileName() + ".snap");
+    }
+
+    // The sorted catalog if a snapshot of the current text file (or of a prefix of it) exists,
+    // otherwise null
+    static Loaded load(Path catalogPath) throws IOException {
+        Path snap = snapshotPath(catalogPath);
+        if (!Files.isRegularFile(snap)) return null;
+
+        try (FileChannel ch = FileChannel.open(snap, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_SIZE + 8 || ch.size() > Integer.MAX_VALUE) return null;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            long sourceSize = buf.getLong();
+            long sourceMtime = buf.getLong();
+            long sourceChecksum = buf.getLong();
+            long sourceCrc = buf.getLong();
+            boolean sourceEndsWithLineBreak = buf.get() != 0;
+
+            long size = Files.size(catalogPath);
+            long tailOffset;
+            if (size == sourceSize && Files.getLastModifiedTime(catalogPath).toMillis() == sourceMtime) {
+                if (sampleChecksum(catalogPath, sourceSize) != sourceChecksum) return null;
+                tailOffset = -1;
+            } else if (size > sourceSize && sourceEndsWithLineBreak) {
+                // Appended to: the old last line was complete, so new lines start exactly at sourceSize.
+                // The mtime no longer vouches for the prefix, so all of it is checked.
+                if (prefixCrc(catalogPath, sourceSize) != sourceCrc) return null;
+                tailOffset = sourceSize;
+            } else {
+                return null;
+            }
+
+            int count = buf.getInt();
+            int rejected = buf.getInt();
+            if (count < 0 || rejected < 0) return null;
+
+            // The CRC is checked before anything the records claim (count, lengths) is trusted
+            int recordsStart = buf.position();
+            int recordsEnd = buf.limit() - 8;
+            CRC32C crc = new CRC32C();
+            crc.update(buf.duplicate().position(recordsStart).limit(recordsEnd));
+            if (buf.getLong(recordsEnd) != crc.getValue()) return null;
+            if (count > (recordsEnd - recordsStart) / MIN_RECORD_SIZE) return null;
+
+            List<Book> books = new ArrayList<>(count);
+            byte[] scratch = new byte[256];
+            buf.limit(recordsEnd);
+            for (int i = 0; i < count; i++) {
+                String title = readString(buf, scratch);
+                String author = AuthorDictionary.canonical(readString(buf, scratch));
+                String isbn;
+                byte tag = buf.get();
+                if (tag == ISBN_PACKED) isbn = IsbnIndex.unpack(buf.getLong());
+                else if (tag == ISBN_TEXT) isbn = readString(buf, scratch);
+                else return null;
+                books.add(new Book(title, author, isbn, buf.getInt()));
+            }
+            if (buf.hasRemaining()) return null;
+
+            return new Loaded(books, rejected, tailOffset);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;   // truncated or corrupt
+        }
+    }
+
+    // books must already be in title order; rejectedCount is the number of invalid source lines
+    static void write(Path catalogPath, List<Book> books, int rejectedCount) throws IOException {
+        Path snap = snapshotPath(catalogPath);
+        Path tmp = snap.resolveSibling(snap.getFileName() + ".tmp");
+
+        long size = Files.size(catalogPath);
+        long mtime = Files.getLastModifiedTime(catalogPath).toMillis();
+        long checksum = sampleChecksum(catalogPath, size);
+        long prefixCrc = prefixCrc(catalogPath, size);
+        boolean endsWithLineBreak = LibraryBookTracker.endsWithLineBreak(catalogPath);
+
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(size);
+            header.writeLong(mtime);
+            header.writeLong(checksum);
+            header.writeLong(prefixCrc);
+            header.writeByte(endsWithLineBreak ? 1 : 0);
+            header.writeInt(books.size());
+            header.writeInt(rejectedCount);
+
+            CRC32C crc = new CRC32C();
+            DataOutputStream records = new DataOutputStream(new CheckedOutputStream(file, crc));
+            for (Book b : books) {
+                writeString(records, b.getTitle());
+                writeString(records, b.getAuthor());
+                long packed = IsbnIndex.pack(b.getIsbn());
+                if (packed >= 0 && IsbnIndex.unpack(packed).equals(b.getIsbn())) {
+                    records.writeByte(ISBN_PACKED);
+                    records.writeLong(packed);
+                } else {
+                    records.writeByte(ISBN_TEXT);
+                    writeString(records, b.getIsbn());
+                }
+                records.writeInt(b.getCopies());
+            }
+            records.flush();
+            header.writeLong(crc.getValue());
+        }
+        Files.move(tmp, snap, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // CRC of the first and last 64 KiB of the first `size` bytes: catches in-place edits that
+    // keep size and mtime without reading the whole catalog
+    static long sampleChecksum(Path catalogPath, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel ch = FileChannel.open(catalogPath, StandardOpenOption.READ)) {
+            crc.update(ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, SAMPLE_SIZE)));
+            if (size > SAMPLE_SIZE) {
+                long tailStart = Math.max(SAMPLE_SIZE, size - SAMPLE_SIZE);
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, tailStart, size - tailStart));
+            }
+        }
+        return crc.getValue();
+    }
+
+    // CRC of all of the first `size` bytes, one sequential pass
+    static long prefixCrc(Path catalogPath, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel ch = FileChannel.open(catalogPath, StandardOpenOption.READ)) {
+            for (long pos = 0; pos < size; pos += Integer.MAX_VALUE) {
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size - pos, Integer.MAX_VALUE)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buf, byte[] scratch) {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) throw new BufferUnderflowException();
+        byte[] bytes = (len <= scratch.length) ? scratch : new byte[len];
+        buf.get(bytes, 0, len);
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+}
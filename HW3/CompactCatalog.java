@@ -0,0 +1,244 @@
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+// Struct-of-arrays catalog (--compact-store). Instead of one Book plus three Strings per record
+// it keeps:
+//   - titles as UTF-8 in one shared byte pool (int start + int length per row)
+//   - authors as int ids into a dictionary, one String per distinct author
+//   - ISBNs packed into a long[] (ISBNs written with non-ASCII digits go to a side list)
+//   - copies in an int[]
+// get(i) hands out a fresh Book built from row i, so the rest of the tracker keeps using
+// getTitle/getAuthor/getIsbn/getCopies; the Books it returns are values, not views.
+class CompactCatalog extends AbstractList<Book> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] titlePool = new byte[1024];
+    private int poolSize;
+
+    private int[] titleStart = new int[INITIAL_CAPACITY];
+    private int[] titleLength = new int[INITIAL_CAPACITY];
+    private int[] authorId = new int[INITIAL_CAPACITY];
+    private long[] isbn = new long[INITIAL_CAPACITY];   // packed, or -(k + 1) for irregularIsbns[k]
+    private int[] copies = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private final List<String> authorNames = new ArrayList<>();
+    private final Map<String, Integer> authorIds = new HashMap<>();
+    private final List<String> irregularIsbns = new ArrayList<>();
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Book get(int i) {
+        checkIndex(i, size);
+        return new Book(getTitle(i), getAuthor(i), getIsbn(i), getCopies(i));
+    }
+
+    String getTitle(int i) {
+        return new String(titlePool, titleStart[i], titleLength[i], StandardCharsets.UTF_8);
+    }
+
+    String getAuthor(int i) {
+        return authorNames.get(authorId[i]);
+    }
+
+    String getIsbn(int i) {
+        long v = isbn[i];
+        return (v >= 0) ? IsbnIndex.unpack(v) : irregularIsbns.get((int) (-v - 1));
+    }
+
+    int getCopies(int i) {
+        return copies[i];
+    }
+
+    @Override
+    public void add(int index, Book b) {
+        checkIndex(index, size + 1);
+        ensureCapacity(size + 1);
+        int tail = size - index;
+        System.arraycopy(titleStart, index, titleStart, index + 1, tail);
+        System.arraycopy(titleLength, index, titleLength, index + 1, tail);
+        System.arraycopy(authorId, index, authorId, index + 1, tail);
+        System.arraycopy(isbn, index, isbn, index + 1, tail);
+        System.arraycopy(copies, index, copies, index + 1, tail);
+        size++;
+        store(index, b);
+        modCount++;
+    }
+
+    @Override
+    public Book set(int index, Book b) {
+        checkIndex(index, size);
+        Book old = get(index);
+        store(index, b);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        poolSize = 0;
+        authorNames.clear();
+        authorIds.clear();
+        irregularIsbns.clear();
+        modCount++;
+    }
+
+    // Orders the rows by permuting the primitive arrays; the title pool itself never moves.
+    // Catalog order only needs the lowercased titles, so no Book is built for it; any other
+    // comparator still sees whole rows.
+    @Override
+    public void sort(Comparator<? super Book> c) {
+        int[] order;
+        if (c == LibraryBookTracker.BY_TITLE) {
+            String[] keys = new String[size];
+            for (int i = 0; i < size; i++) keys[i] = getTitle(i).toLowerCase();
+            order = stableOrder((a, b) -> keys[a].compareTo(keys[b]));
+        } else {
+            Book[] rows = new Book[size];
+            for (int i = 0; i < size; i++) rows[i] = get(i);
+            order = stableOrder((a, b) -> c.compare(rows[a], rows[b]));
+        }
+
+        int[] newStart = new int[titleStart.length];
+        int[] newLength = new int[titleLength.length];
+        int[] newAuthor = new int[authorId.length];
+        long[] newIsbn = new long[isbn.length];
+        int[] newCopies = new int[copies.length];
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            newStart[i] = titleStart[from];
+            newLength[i] = titleLength[from];
+            newAuthor[i] = authorId[from];
+            newIsbn[i] = isbn[from];
+            newCopies[i] = copies[from];
+        }
+        titleStart = newStart;
+        titleLength = newLength;
+        authorId = newAuthor;
+        isbn = newIsbn;
+        copies = newCopies;
+        modCount++;
+    }
+
+    private interface RowComparator {
+        int compare(int a, int b);
+    }
+
+    // Bottom-up merge sort of the row numbers; stable, like List.sort
+    private int[] stableOrder(RowComparator c) {
+        int[] order = new int[size];
+        int[] merged = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                int mid = Math.min(lo + width, size), hi = Math.min(lo + 2 * width, size);
+                int i = lo, j = mid, o = lo;
+                while (i < mid && j < hi) merged[o++] = (c.compare(order[j], order[i]) < 0) ? order[j++] : order[i++];
+                while (i < mid) merged[o++] = order[i++];
+                while (j < hi) merged[o++] = order[j++];
+            }
+            int[] swap = order;
+            order = merged;
+            merged = swap;
+        }
+        return order;
+    }
+
+    // Independent copy for ConcurrentCatalog: every column and dictionary is cloned, so an add to
+    // one side never shows through in the other
+    CompactCatalog copy() {
+        CompactCatalog c = new CompactCatalog();
+        c.titlePool = titlePool.clone();
+        c.poolSize = poolSize;
+        c.titleStart = titleStart.clone();
+        c.titleLength = titleLength.clone();
+        c.authorId = authorId.clone();
+        c.isbn = isbn.clone();
+        c.copies = copies.clone();
+        c.size = size;
+        c.authorNames.addAll(authorNames);
+        c.authorIds.putAll(authorIds);
+        c.irregularIsbns.addAll(irregularIsbns);
+        return c;
+    }
+
+    // Linear scan of the packed ISBN column: 8 bytes per row, no pointer chasing
+    List<Book> findByIsbn(String wanted) {
+        List<Book> matches = new ArrayList<>(1);
+        long key = IsbnIndex.pack(wanted);
+        if (key >= 0 && IsbnIndex.unpack(key).equals(wanted)) {
+            for (int i = 0; i < size; i++) {
+                if (isbn[i] == key) matches.add(get(i));
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (isbn[i] < 0 && irregularIsbns.get((int) (-isbn[i] - 1)).equals(wanted)) matches.add(get(i));
+            }
+        }
+        return matches;
+    }
+
+    // Approximate heap footprint of the columns, the title pool and the author dictionary
+    long estimatedBytes() {
+        long bytes = 4L * (titleStart.length + titleLength.length + authorId.length + copies.length)
+                + 8L * isbn.length + titlePool.length;
+        for (String a : authorNames) bytes += 40 + a.length();
+        for (String s : irregularIsbns) bytes += 40 + 2L * s.length();
+        return bytes;
+    }
+
+    private void store(int i, Book b) {
+        byte[] title = b.getTitle().getBytes(StandardCharsets.UTF_8);
+        if (poolSize + title.length > titlePool.length) {
+            titlePool = Arrays.copyOf(titlePool, Math.max(poolSize + title.length, titlePool.length * 2));
+        }
+        System.arraycopy(title, 0, titlePool, poolSize, title.length);
+        titleStart[i] = poolSize;
+        titleLength[i] = title.length;
+        poolSize += title.length;
+
+        Integer id = authorIds.get(b.getAuthor());
+        if (id == null) {
+            id = authorNames.size();
+            authorNames.add(b.getAuthor());
+            authorIds.put(b.getAuthor(), id);
+        }
+        authorId[i] = id;
+
+        long packed = IsbnIndex.pack(b.getIsbn());
+        if (packed >= 0 && IsbnIndex.unpack(packed).equals(b.getIsbn())) {
+            isbn[i] = packed;
+        } else {
+            irregularIsbns.add(b.getIsbn());
+            isbn[i] = -irregularIsbns.size();
+        }
+        copies[i] = b.getCopies();
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= isbn.length) return;
+        int capacity = Math.max(needed, isbn.length + (isbn.length >> 1));
+        titleStart = Arrays.copyOf(titleStart, capacity);
+        titleLength = Arrays.copyOf(titleLength, capacity);
+        authorId = Arrays.copyOf(authorId, capacity);
+        isbn = Arrays.copyOf(isbn, capacity);
+        copies = Arrays.copyOf(copies, capacity);
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (bound));
+        }
+    }
+}
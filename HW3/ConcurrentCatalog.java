@@ -0,0 +1,57 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Copy-on-write holder for a catalog shared by concurrent clients (CatalogServer). Readers take
+// the current Snapshot and use its list and indexes without any lock; nothing ever modifies a
+// published snapshot. A writer copies the current snapshot, applies its change (insert, index
+// update, catalog rewrite) to the copy while holding the write lock, then publishes the copy.
+// Searches that start during an add, including the whole writeCatalog, see the catalog as it was
+// before that add; writers queue behind each other, never readers. Every snapshot's trigram index
+// is built before it is published, so no search waits on a build either.
+class ConcurrentCatalog {
+
+    static class Snapshot {
+        final List<Book> books;
+        final IsbnIndex isbnIndex;
+        final TitleTrigramIndex titleIndex;
+
+        Snapshot(List<Book> books, IsbnIndex isbnIndex, TitleTrigramIndex titleIndex) {
+            this.books = books;
+            this.isbnIndex = isbnIndex;
+            this.titleIndex = titleIndex;
+        }
+    }
+
+    private final Object writeLock = new Object();
+    private volatile Snapshot current;
+
+    ConcurrentCatalog(List<Book> books, IsbnIndex isbnIndex, TitleTrigramIndex titleIndex) {
+        titleIndex.prepare(books);
+        current = new Snapshot(books, isbnIndex, titleIndex);
+    }
+
+    Snapshot current() {
+        return current;
+    }
+
+    // The copy is only published if the change added or removed records, so a rejected add costs
+    // the copy but keeps the old snapshot and its already-built trigram index. A change that throws
+    // (a failed catalog write) is never published either.
+    void update(Consumer<Snapshot> change) {
+        synchronized (writeLock) {
+            Snapshot base = current;
+            Snapshot copy = new Snapshot(copyOf(base.books), base.isbnIndex.copy(), new TitleTrigramIndex());
+            change.accept(copy);
+            if (copy.books.size() != base.books.size()) {
+                copy.titleIndex.prepare(copy.books);
+                current = copy;
+            }
+        }
+    }
+
+    private static List<Book> copyOf(List<Book> books) {
+        if (books instanceof CompactCatalog) return ((CompactCatalog) books).copy();
+        return new ArrayList<>(books);
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Single background writer for errors.log. Callers only queue the finished line; the writer
+// drains whatever has piled up and writes it with one open/flush per log file per batch,
+// instead of one open/close per bad record.
+class ErrorLogger {
+    private static final int QUEUE_CAPACITY = 64 * 1024;   // callers block (not drop) once this fills up
+    private static final int MAX_BATCH = 4096;
+
+    private static final Object LOCK = new Object();
+    private static ErrorLogger instance;
+    private static boolean closed;
+    private static boolean shutdownHookAdded;
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile IOException failure;
+
+    private static class Entry {
+        final Path path;               // null for flush/close markers
+        final String line;
+        final CountDownLatch done;
+        final boolean close;
+
+        Entry(Path path, String line, CountDownLatch done, boolean close) {
+            this.path = path;
+            this.line = line;
+            this.done = done;
+            this.close = close;
+        }
+    }
+
+    private ErrorLogger() {
+        writer = new Thread(this::drain, "ErrorLogger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static void log(Path logPath, String line) throws IOException {
+        // Queued under the lock so nothing can slip in behind the close marker
+        synchronized (LOCK) {
+            if (closed) {
+                // Late errors after close() still reach the file, just synchronously
+                writeNow(logPath, List.of(line));
+                return;
+            }
+            if (instance == null) instance = new ErrorLogger();
+            instance.rethrowFailure();
+            instance.enqueue(new Entry(logPath, line, null, false));
+        }
+    }
+
+    // Blocks until every line queued so far is on disk
+    static void flush() throws IOException {
+        ErrorLogger logger;
+        synchronized (LOCK) {
+            logger = instance;
+        }
+        if (logger == null) return;
+        CountDownLatch done = new CountDownLatch(1);
+        logger.enqueue(new Entry(null, null, done, false));
+        logger.await(done);
+        logger.rethrowFailure();
+    }
+
+    // For the long-running modes, which are stopped with Ctrl-C: queued lines still reach the
+    // file. Registers the hook once, however many servers ask.
+    static void closeOnShutdown() {
+        synchronized (LOCK) {
+            if (shutdownHookAdded) return;
+            shutdownHookAdded = true;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try { close(); } catch (IOException ignored) {}
+        }, "ErrorLoggerShutdown"));
+    }
+
+    // Writes everything still queued and stops the writer thread
+    static void close() throws IOException {
+        ErrorLogger logger;
+        CountDownLatch done = new CountDownLatch(1);
+        synchronized (LOCK) {
+            logger = instance;
+            instance = null;
+            closed = true;
+            if (logger == null) return;
+            logger.enqueue(new Entry(null, null, done, true));
+        }
+        logger.await(done);
+        logger.rethrowFailure();
+    }
+
+    private void enqueue(Entry e) throws IOException {
+        try {
+            queue.put(e);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing error log entry", ex);
+        }
+    }
+
+    private void await(CountDownLatch done) throws IOException {
+        try {
+            done.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing error log", ex);
+        }
+    }
+
+    private void rethrowFailure() throws IOException {
+        IOException f = failure;
+        if (f != null) throw f;
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            Map<Path, List<String>> byFile = new LinkedHashMap<>();
+            for (Entry e : batch) {
+                if (e.path != null) byFile.computeIfAbsent(e.path, p -> new ArrayList<>()).add(e.line);
+            }
+            for (Map.Entry<Path, List<String>> f : byFile.entrySet()) {
+                try {
+                    writeNow(f.getKey(), f.getValue());
+                } catch (IOException ex) {
+                    if (failure == null) failure = ex;
+                }
+            }
+
+            boolean stop = false;
+            for (Entry e : batch) {
+                if (e.done != null) e.done.countDown();
+                if (e.close) stop = true;
+            }
+            batch.clear();
+            if (stop) return;
+        }
+    }
+
+    private static void writeNow(Path logPath, List<String> lines) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(
+                logPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND
+        )) {
+            for (String line : lines) {
+                bw.write(line);
+                bw.newLine();
+            }
+        }
+    }
+}
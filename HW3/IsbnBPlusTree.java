@@ -0,0 +1,482 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Persistent B+tree next to the catalog ("<catalog>.bpt") from packed ISBN to the byte offset
+// of every valid line carrying it. With --isbn-index a run whose operations are all ISBN
+// lookups descends the tree (a handful of 4 KiB page reads) and parses only the matching lines
+// instead of loading the whole catalog.
+//
+// writeCatalog rebuilds an existing tree from the sorted list it just wrote; an append inserts
+// the new lines into it. The header records the size, mtime and sampled checksum of the catalog
+// it describes (as CatalogSnapshot does), so a tree that no longer matches is ignored and
+// rebuilt by a full scan on the next --isbn-index run.
+//
+// Page 0 is the header. Leaves hold sorted (key, offset) pairs and link to the next leaf;
+// internal pages hold child0 followed by (separator, child) pairs, where a separator is the
+// first key of its child. Duplicated ISBNs may straddle leaves, so lookups descend to the
+// leftmost candidate and walk right.
+class IsbnBPlusTree implements Closeable {
+    private static final int MAGIC = 0x4C425442;   // "LBTB"
+    private static final int VERSION = 1;
+    static final int PAGE_SIZE = 4096;
+
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+    private static final int NODE_HEADER = 8;   // type, pad, short count, int next-leaf / child0
+    private static final int LEAF_CAPACITY = (PAGE_SIZE - NODE_HEADER) / 16;
+    private static final int INTERNAL_CAPACITY = (PAGE_SIZE - NODE_HEADER) / 12;
+
+    private static final int LINE_SEPARATOR_BYTES = System.lineSeparator().length();
+
+    private final FileChannel ch;
+    private int root;
+    private int pageCount;
+    private long entryCount;
+    private int rejectedCount;
+
+    private IsbnBPlusTree(FileChannel ch) {
+        this.ch = ch;
+    }
+
+    static Path indexPath(Path catalogPath) {
+        return catalogPath.resolveSibling(catalogPath.getFileName() + ".bpt");
+    }
+
+    // The tree, if one exists and still describes catalogPath byte for byte; otherwise null
+    static IsbnBPlusTree openIfCurrent(Path catalogPath, boolean writable) throws IOException {
+        Path path = indexPath(catalogPath);
+        if (!Files.isRegularFile(path)) return null;
+
+        FileChannel ch = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ);
+        IsbnBPlusTree tree = new IsbnBPlusTree(ch);
+        try {
+            if (ch.size() < PAGE_SIZE || ch.size() % PAGE_SIZE != 0) return closeAndNull(tree);
+            ByteBuffer h = tree.readPage(0);
+            if (h.getInt() != MAGIC || h.getInt() != VERSION) return closeAndNull(tree);
+            tree.root = h.getInt();
+            tree.pageCount = h.getInt();
+            tree.entryCount = h.getLong();
+            tree.rejectedCount = h.getInt();
+            long sourceSize = h.getLong();
+            long sourceMtime = h.getLong();
+            long sourceChecksum = h.getLong();
+
+            if (tree.pageCount * (long) PAGE_SIZE != ch.size() || tree.root <= 0 || tree.root >= tree.pageCount
+                    || Files.size(catalogPath) != sourceSize
+                    || Files.getLastModifiedTime(catalogPath).toMillis() != sourceMtime
+                    || CatalogSnapshot.sampleChecksum(catalogPath, sourceSize) != sourceChecksum) {
+                return closeAndNull(tree);
+            }
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            tree.close();
+            if (e instanceof IOException) throw (IOException) e;
+            return null;   // corrupt header
+        }
+    }
+
+    long entryCount() {
+        return entryCount;
+    }
+
+    int rejectedCount() {
+        return rejectedCount;
+    }
+
+    // Books on the catalog lines indexed under this ISBN whose ISBN text matches exactly
+    List<Book> find(Path catalogPath, String isbn) throws IOException {
+        List<Book> matches = new ArrayList<>(1);
+        long key = IsbnIndex.pack(isbn);
+        if (key < 0) return matches;
+
+        int page = root;
+        ByteBuffer node = readPage(page);
+        while (node.get(0) == INTERNAL) {
+            int count = node.getShort(2);
+            int child = node.getInt(4);
+            for (int i = 0; i < count; i++) {
+                int at = NODE_HEADER + i * 12;
+                if (node.getLong(at) >= key) break;
+                child = node.getInt(at + 8);
+            }
+            node = readPage(child);
+        }
+
+        try (FileChannel catalog = FileChannel.open(catalogPath, StandardOpenOption.READ)) {
+            while (true) {
+                int count = node.getShort(2);
+                for (int i = 0; i < count; i++) {
+                    int at = NODE_HEADER + i * 16;
+                    long k = node.getLong(at);
+                    if (k > key) return matches;
+                    if (k < key) continue;
+                    try {
+                        Book b = LibraryBookTracker.parseAndValidateBookRecord(
+                                readLine(catalog, node.getLong(at + 8)).trim());
+                        if (b.getIsbn().equals(isbn)) matches.add(b);
+                    } catch (BookCatalogException ignored) {
+                        // Only valid lines are indexed; a mismatch here means the file changed under us
+                    }
+                }
+                int next = node.getInt(4);
+                if (next == 0) return matches;
+                node = readPage(next);
+            }
+        }
+    }
+
+    // --- building --------------------------------------------------------------------------
+
+    // Rebuilds the tree for the sorted list writeCatalog just wrote: line i starts where the
+    // encoded lines before it end
+    static void rebuildAfterWrite(Path catalogPath, List<Book> books) throws IOException {
+        long[] keys = new long[books.size()];
+        long[] offsets = new long[books.size()];
+        int n = 0;
+        long offset = 0;
+        for (Book b : books) {
+            String line = b.toCatalogLine();
+            long key = IsbnIndex.pack(b.getIsbn());
+            if (key >= 0) {
+                keys[n] = key;
+                offsets[n++] = offset;
+            }
+            offset += utf8Length(line) + LINE_SEPARATOR_BYTES;
+        }
+        write(catalogPath, keys, offsets, n, 0);
+    }
+
+    // Full scan for a missing or stale tree. Invalid lines are counted and logged exactly as a
+    // catalog load would; returns the number of valid records.
+    static long rebuildByScan(Path catalogPath, Path logPath, LibraryBookTracker.Stats stats) throws IOException {
+        long[][] entries = {new long[1024], new long[1024]};
+        int[] n = {0};
+        int[] rejected = {0};
+
+        forEachLine(catalogPath, (lineStart, text) -> {
+            String trimmed = text.trim();
+            if (trimmed.isEmpty()) return;
+            try {
+                Book b = LibraryBookTracker.parseAndValidateBookRecord(trimmed);
+                if (n[0] == entries[0].length) {
+                    entries[0] = Arrays.copyOf(entries[0], n[0] * 2);
+                    entries[1] = Arrays.copyOf(entries[1], n[0] * 2);
+                }
+                entries[0][n[0]] = IsbnIndex.pack(b.getIsbn());
+                entries[1][n[0]++] = lineStart;
+                stats.validRecordsProcessed.increment();
+            } catch (BookCatalogException e) {
+                rejected[0]++;
+                stats.errorsEncountered.increment();
+                LibraryBookTracker.logError(logPath, trimmed, e);
+            }
+        });
+        write(catalogPath, entries[0], entries[1], n[0], rejected[0]);
+        return n[0];
+    }
+
+    // Bulk load: leaves are packed full in key order, then each level of internal pages is built
+    // over the one below until a single root remains. Written to a temp file and moved into place.
+    private static void write(Path catalogPath, long[] keys, long[] offsets, int n, int rejected) throws IOException {
+        sortByKey(keys, offsets, n);
+
+        Path path = indexPath(catalogPath);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ)) {
+            IsbnBPlusTree tree = new IsbnBPlusTree(out);
+            tree.pageCount = 1;
+
+            int leaves = Math.max(1, (n + LEAF_CAPACITY - 1) / LEAF_CAPACITY);
+            long[] levelKeys = new long[leaves];
+            int[] levelPages = new int[leaves];
+            for (int l = 0; l < leaves; l++) {
+                int from = l * LEAF_CAPACITY, to = Math.min(n, from + LEAF_CAPACITY);
+                ByteBuffer page = newPage(LEAF, to - from);
+                page.putInt(4, (l + 1 < leaves) ? tree.pageCount + 1 : 0);
+                for (int i = from; i < to; i++) {
+                    page.putLong(NODE_HEADER + (i - from) * 16, keys[i]);
+                    page.putLong(NODE_HEADER + (i - from) * 16 + 8, offsets[i]);
+                }
+                levelKeys[l] = (to > from) ? keys[from] : 0;
+                levelPages[l] = tree.pageCount;
+                tree.writePage(tree.pageCount++, page);
+            }
+
+            int levelSize = leaves;
+            while (levelSize > 1) {
+                int parents = (levelSize + INTERNAL_CAPACITY) / (INTERNAL_CAPACITY + 1);
+                for (int p = 0; p < parents; p++) {
+                    int from = p * (INTERNAL_CAPACITY + 1), to = Math.min(levelSize, from + INTERNAL_CAPACITY + 1);
+                    ByteBuffer page = newPage(INTERNAL, to - from - 1);
+                    page.putInt(4, levelPages[from]);
+                    for (int c = from + 1; c < to; c++) {
+                        page.putLong(NODE_HEADER + (c - from - 1) * 12, levelKeys[c]);
+                        page.putInt(NODE_HEADER + (c - from - 1) * 12 + 8, levelPages[c]);
+                    }
+                    levelKeys[p] = levelKeys[from];
+                    levelPages[p] = tree.pageCount;
+                    tree.writePage(tree.pageCount++, page);
+                }
+                levelSize = parents;
+            }
+
+            tree.root = levelPages[0];
+            tree.entryCount = n;
+            tree.rejectedCount = rejected;
+            tree.writeHeader(catalogPath);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // --- appends ---------------------------------------------------------------------------
+
+    // Adds one (key, offset) pair, splitting full pages on the way back up
+    void insert(long key, long offset) throws IOException {
+        int[] path = new int[64];
+        int[] slots = new int[64];
+        int depth = 0;
+
+        int page = root;
+        ByteBuffer node = readPage(page);
+        while (node.get(0) == INTERNAL) {
+            int count = node.getShort(2);
+            int slot = 0;
+            while (slot < count && node.getLong(NODE_HEADER + slot * 12) <= key) slot++;
+            path[depth] = page;
+            slots[depth++] = slot;
+            page = (slot == 0) ? node.getInt(4) : node.getInt(NODE_HEADER + (slot - 1) * 12 + 8);
+            node = readPage(page);
+        }
+
+        // Leaf: insert after every entry with key <= the new one
+        int count = node.getShort(2);
+        int at = 0;
+        while (at < count && node.getLong(NODE_HEADER + at * 16) <= key) at++;
+        long[] k = new long[count + 1];
+        long[] v = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            int j = (i < at) ? i : i + 1;
+            k[j] = node.getLong(NODE_HEADER + i * 16);
+            v[j] = node.getLong(NODE_HEADER + i * 16 + 8);
+        }
+        k[at] = key;
+        v[at] = offset;
+        entryCount++;
+
+        int next = node.getInt(4);
+        if (count + 1 <= LEAF_CAPACITY) {
+            writePage(page, leafPage(k, v, 0, count + 1, next));
+            return;
+        }
+        int half = (count + 1) / 2;
+        int right = pageCount++;
+        writePage(page, leafPage(k, v, 0, half, right));
+        writePage(right, leafPage(k, v, half, count + 1, next));
+
+        long separator = k[half];
+        int newChild = right;
+        while (depth > 0) {
+            int parent = path[--depth];
+            int slot = slots[depth];
+            ByteBuffer p = readPage(parent);
+            int pc = p.getShort(2);
+            long[] keys = new long[pc + 1];
+            int[] children = new int[pc + 2];
+            children[0] = p.getInt(4);
+            for (int i = 0; i < pc; i++) {
+                int j = (i < slot) ? i : i + 1;
+                keys[j] = p.getLong(NODE_HEADER + i * 12);
+                children[j + 1] = p.getInt(NODE_HEADER + i * 12 + 8);
+            }
+            keys[slot] = separator;
+            children[slot + 1] = newChild;
+
+            if (pc + 1 <= INTERNAL_CAPACITY) {
+                writePage(parent, internalPage(keys, children, 0, pc + 1));
+                return;
+            }
+            // The middle key moves up; it stays the first key of the right half's subtree
+            int mid = (pc + 1) / 2;
+            int rightPage = pageCount++;
+            writePage(parent, internalPage(keys, children, 0, mid));
+            writePage(rightPage, internalPage(keys, children, mid + 1, pc + 1));
+            separator = keys[mid];
+            newChild = rightPage;
+        }
+
+        int newRoot = pageCount++;
+        writePage(newRoot, internalPage(new long[]{separator}, new int[]{root, newChild}, 0, 1));
+        root = newRoot;
+    }
+
+    // After an append: the tree now describes the grown catalog
+    void markCurrent(Path catalogPath) throws IOException {
+        writeHeader(catalogPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+
+    // --- pages -----------------------------------------------------------------------------
+
+    private static ByteBuffer newPage(byte type, int count) {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        page.put(0, type);
+        page.putShort(2, (short) count);
+        return page;
+    }
+
+    private static ByteBuffer leafPage(long[] k, long[] v, int from, int to, int next) {
+        ByteBuffer page = newPage(LEAF, to - from);
+        page.putInt(4, next);
+        for (int i = from; i < to; i++) {
+            page.putLong(NODE_HEADER + (i - from) * 16, k[i]);
+            page.putLong(NODE_HEADER + (i - from) * 16 + 8, v[i]);
+        }
+        return page;
+    }
+
+    // Keys [from, to) with the children around them, children[from] .. children[to]
+    private static ByteBuffer internalPage(long[] keys, int[] children, int from, int to) {
+        ByteBuffer page = newPage(INTERNAL, to - from);
+        page.putInt(4, children[from]);
+        for (int i = from; i < to; i++) {
+            page.putLong(NODE_HEADER + (i - from) * 12, keys[i]);
+            page.putInt(NODE_HEADER + (i - from) * 12 + 8, children[i + 1]);
+        }
+        return page;
+    }
+
+    private ByteBuffer readPage(int page) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        long pos = (long) page * PAGE_SIZE;
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new IOException("Truncated ISBN index page " + page);
+        }
+        return buf.flip();
+    }
+
+    private void writePage(int page, ByteBuffer buf) throws IOException {
+        buf.rewind();
+        long pos = (long) page * PAGE_SIZE;
+        while (buf.hasRemaining()) ch.write(buf, pos + buf.position());
+    }
+
+    private void writeHeader(Path catalogPath) throws IOException {
+        long size = Files.size(catalogPath);
+        ByteBuffer h = ByteBuffer.allocate(PAGE_SIZE);
+        h.putInt(MAGIC).putInt(VERSION).putInt(root).putInt(pageCount).putLong(entryCount).putInt(rejectedCount);
+        h.putLong(size);
+        h.putLong(Files.getLastModifiedTime(catalogPath).toMillis());
+        h.putLong(CatalogSnapshot.sampleChecksum(catalogPath, size));
+        writePage(0, h);
+    }
+
+    // --- helpers ---------------------------------------------------------------------------
+
+    private static IsbnBPlusTree closeAndNull(IsbnBPlusTree tree) throws IOException {
+        tree.close();
+        return null;
+    }
+
+    // The catalog line starting at offset, without its line break
+    private static String readLine(FileChannel catalog, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        while (true) {
+            int read = catalog.read(buf, offset + buf.position());
+            for (int i = 0; i < buf.position(); i++) {
+                byte b = buf.get(i);
+                if (b == '\n' || b == '\r') return new String(buf.array(), 0, i, StandardCharsets.UTF_8);
+            }
+            if (read < 0) return new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+            if (!buf.hasRemaining()) buf = ByteBuffer.allocate(buf.capacity() * 2).put(buf.flip());
+        }
+    }
+
+    interface LineVisitor {
+        void visit(long lineStart, String text) throws IOException;
+    }
+
+    // Every line of the file with the byte offset it starts at; like BufferedReader.readLine, a
+    // line ends at \n, \r or \r\n
+    static void forEachLine(Path path, LineVisitor visitor) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] chunk = new byte[1 << 16];
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            long offset = 0, lineStart = 0;
+            boolean afterCr = false;
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = chunk[i];
+                    offset++;
+                    if (b == '\n' && afterCr) {
+                        lineStart = offset;   // second half of \r\n
+                        afterCr = false;
+                    } else if (b == '\n' || b == '\r') {
+                        visitor.visit(lineStart, new String(line, 0, lineLength, StandardCharsets.UTF_8));
+                        lineLength = 0;
+                        lineStart = offset;
+                        afterCr = b == '\r';
+                    } else {
+                        afterCr = false;
+                        if (lineLength == line.length) line = Arrays.copyOf(line, lineLength * 2);
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+            if (lineLength > 0) visitor.visit(lineStart, new String(line, 0, lineLength, StandardCharsets.UTF_8));
+        }
+    }
+
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) bytes++;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        return bytes;
+    }
+
+    // Stable merge sort of the (key, offset) pairs by key, so equal keys keep file order
+    private static void sortByKey(long[] keys, long[] offsets, int n) {
+        long[] k2 = new long[n];
+        long[] v2 = new long[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n), hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, o = lo;
+                while (i < mid && j < hi) {
+                    if (keys[j] < keys[i]) { k2[o] = keys[j]; v2[o++] = offsets[j++]; }
+                    else { k2[o] = keys[i]; v2[o++] = offsets[i++]; }
+                }
+                while (i < mid) { k2[o] = keys[i]; v2[o++] = offsets[i++]; }
+                while (j < hi) { k2[o] = keys[j]; v2[o++] = offsets[j++]; }
+            }
+            System.arraycopy(k2, 0, keys, 0, n);
+            System.arraycopy(v2, 0, offsets, 0, n);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Hash index from an ISBN packed into a long to the book(s) carrying it.
+// Open addressing with linear probing, so lookups never touch the book list.
+class IsbnIndex {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private Object[] values;   // a Book, or a List<Book> once the ISBN is duplicated
+    private int size;
+
+    IsbnIndex() {
+        this(16);
+    }
+
+    IsbnIndex(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    // 13 decimal digits always fit in a long; returns -1 for anything else
+    static long pack(String isbn) {
+        if (isbn == null || isbn.length() != 13) return EMPTY;
+        long packed = 0;
+        for (int i = 0; i < 13; i++) {
+            int d = Character.digit(isbn.charAt(i), 10);
+            if (d < 0) return EMPTY;
+            packed = packed * 10 + d;
+        }
+        return packed;
+    }
+
+    // Inverse of pack for ASCII ISBNs
+    static String unpack(long packed) {
+        char[] digits = new char[13];
+        for (int i = 12; i >= 0; i--) {
+            digits[i] = (char) ('0' + packed % 10);
+            packed /= 10;
+        }
+        return new String(digits);
+    }
+
+    int size() { return size; }
+
+    // Independent copy for ConcurrentCatalog; duplicate lists are copied too, since add() appends to them
+    @SuppressWarnings("unchecked")
+    IsbnIndex copy() {
+        IsbnIndex c = new IsbnIndex();
+        c.keys = keys.clone();
+        c.values = values.clone();
+        c.size = size;
+        for (int i = 0; i < c.values.length; i++) {
+            if (c.values[i] instanceof List) c.values[i] = new ArrayList<>((List<Book>) c.values[i]);
+        }
+        return c;
+    }
+
+    void clear() {
+        allocate(16);
+    }
+
+    void add(Book b) {
+        long key = pack(b.getIsbn());
+        if (key == EMPTY) return;
+
+        if ((size + 1) * 2 > keys.length) rehash(keys.length * 2);
+
+        int slot = findSlot(keys, key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            values[slot] = b;
+            size++;
+        } else {
+            values[slot] = append(values[slot], b);
+        }
+    }
+
+    // Every indexed book whose ISBN string equals the given one (empty if none)
+    List<Book> lookup(String isbn) {
+        List<Book> matches = new ArrayList<>(1);
+        long key = pack(isbn);
+        if (key == EMPTY) return matches;
+
+        int slot = findSlot(keys, key);
+        if (keys[slot] == EMPTY) return matches;
+
+        Object v = values[slot];
+        if (v instanceof Book) {
+            Book b = (Book) v;
+            if (b.getIsbn().equals(isbn)) matches.add(b);
+        } else {
+            @SuppressWarnings("unchecked")
+            List<Book> list = (List<Book>) v;
+            for (Book b : list) {
+                // Unicode digits pack to the same key as ASCII ones, so compare the text too
+                if (b.getIsbn().equals(isbn)) matches.add(b);
+            }
+        }
+        return matches;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object append(Object existing, Book b) {
+        List<Book> list;
+        if (existing instanceof Book) {
+            list = new ArrayList<>(2);
+            list.add((Book) existing);
+        } else {
+            list = (List<Book>) existing;
+        }
+        list.add(b);
+        return list;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldSize = size;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = findSlot(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+        size = oldSize;
+    }
+
+    private static int findSlot(long[] table, long key) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while (table[slot] != EMPTY && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int n = 16;
+        while (n < expectedSize * 2 && n < (1 << 30)) n <<= 1;
+        return n;
+    }
+}
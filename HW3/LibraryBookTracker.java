@@ -1,39 +1,195 @@
-import java.io.BufferedWriter;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class LibraryBookTracker {
 
     private static final String HEADER_FORMAT = "%-30s %-20s %-15s %5s%n";
     private static final String ROW_FORMAT    = "%-30.30s %-20.20s %-15.15s %5d%n";
 
+    // Catalog order: case-insensitive by title, using the key each Book computed once
+    static final Comparator<Book> BY_TITLE = Comparator.comparing(Book::getTitleKey);
+
+    // Bounded hand-off between FileReader and OperationAnalyzer in --pipeline mode
+    private static final int PIPELINE_CAPACITY = 1024;
+    private static final Book END_OF_CATALOG = new Book("", "", "", 0);
+
+    // LongAdders, so concurrent operations (QueryExecutor, CatalogServer clients) can all count
     static class Stats {
-        int validRecordsProcessed = 0;
-        int searchResults = 0;
-        int booksAdded = 0;
-        int errorsEncountered = 0;
+        final LongAdder validRecordsProcessed = new LongAdder();
+        final LongAdder searchResults = new LongAdder();
+        final LongAdder booksAdded = new LongAdder();
+        final LongAdder errorsEncountered = new LongAdder();
+    }
+
+    // Leading "--name" arguments; everything from the catalog path on is positional
+    static class Options {
+        boolean streaming = false;   // read and validate one line at a time instead of readAllLines
+        boolean pipeline = false;    // keyword search prints matches while the catalog is still loading,
+                                     // in file order rather than title order
+        boolean append = false;      // an add only appends its line; the catalog is not loaded or rewritten
+        boolean compact = false;     // rewrite the catalog in title order; the operation becomes optional
+        int servePort = -1;          // keep the loaded catalog in memory and answer operations on this port
+        boolean snapshot = false;    // start from <catalog>.snap when it matches catalog.txt, refresh it otherwise
+        boolean compactStore = false; // hold the loaded catalog in a CompactCatalog instead of an ArrayList<Book>
+        String batchAddSource = null; // add every record in this file ("-" for stdin) with a single catalog write
+        String queriesSource = null;  // more operations, one per line of this file ("-" for stdin)
+        int workers = 1;              // threads QueryExecutor runs lookups and searches on
+        int httpPort = -1;            // answer GET /isbn/, GET /search and POST /books over HTTP on this port
+        int shards = 0;               // keep the catalog in this many files split by ISBN hash (0 = catalog.txt)
+        boolean isbnIndex = false;    // answer ISBN-only runs from the <catalog>.bpt B+tree without a load
+        boolean lsm = false;          // keep the catalog in the <catalog>.lsm store; catalog.txt is only an export
+
+        boolean operationOptional() {
+            return compact || servePort >= 0 || httpPort >= 0 || batchAddSource != null || queriesSource != null;
+        }
+
+        static Options parse(String[] args, List<String> positional) throws InvalidOptionException {
+            Options options = new Options();
+            int i = 0;
+            for (; i < args.length && args[i].startsWith("--"); i++) {
+                String arg = args[i];
+                if (arg.equals("--")) {
+                    i++;
+                    break;
+                }
+                switch (arg) {
+                    case "--streaming":
+                        options.streaming = true;
+                        break;
+                    case "--pipeline":
+                        options.pipeline = true;
+                        break;
+                    case "--append":
+                        options.append = true;
+                        break;
+                    case "--compact":
+                        options.compact = true;
+                        break;
+                    case "--snapshot":
+                        options.snapshot = true;
+                        break;
+                    case "--compact-store":
+                        options.compactStore = true;
+                        break;
+                    case "--isbn-index":
+                        options.isbnIndex = true;
+                        break;
+                    case "--lsm":
+                        options.lsm = true;
+                        break;
+                    default:
+                        if (arg.startsWith("--serve=")) {
+                            options.servePort = parsePort(arg.substring("--serve=".length()));
+                            break;
+                        }
+                        if (arg.startsWith("--http=")) {
+                            options.httpPort = parsePort(arg.substring("--http=".length()));
+                            break;
+                        }
+                        if (arg.startsWith("--batch-add=") && arg.length() > "--batch-add=".length()) {
+                            options.batchAddSource = arg.substring("--batch-add=".length());
+                            break;
+                        }
+                        if (arg.startsWith("--queries=") && arg.length() > "--queries=".length()) {
+                            options.queriesSource = arg.substring("--queries=".length());
+                            break;
+                        }
+                        if (arg.startsWith("--shards=")) {
+                            options.shards = parseShards(arg.substring("--shards=".length()));
+                            break;
+                        }
+                        if (arg.startsWith("--workers=")) {
+                            options.workers = parseWorkers(arg.substring("--workers=".length()));
+                            break;
+                        }
+                        throw new InvalidOptionException("Unknown option: " + arg);
+                }
+            }
+            if ("-".equals(options.batchAddSource) && "-".equals(options.queriesSource)) {
+                throw new InvalidOptionException("--batch-add and --queries cannot both read stdin");
+            }
+            // Modes that would otherwise be silently ignored are rejected
+            if (options.shards > 0 && (options.servePort >= 0 || options.httpPort >= 0
+                    || options.batchAddSource != null || options.pipeline || options.isbnIndex
+                    || options.workers > 1)) {
+                throw new InvalidOptionException("--shards cannot be combined with --serve, --http, --batch-add, "
+                        + "--pipeline, --isbn-index or --workers");
+            }
+            if (options.lsm && (options.shards > 0 || options.servePort >= 0 || options.httpPort >= 0
+                    || options.batchAddSource != null || options.pipeline || options.isbnIndex
+                    || options.snapshot || options.append || options.workers > 1)) {
+                throw new InvalidOptionException("--lsm cannot be combined with --shards, --serve, --http, --batch-add, "
+                        + "--pipeline, --isbn-index, --snapshot, --append or --workers");
+            }
+            for (; i < args.length; i++) positional.add(args[i]);
+            return options;
+        }
+
+        private static int parsePort(String value) throws InvalidOptionException {
+            try {
+                int port = Integer.parseInt(value);
+                if (port >= 0 && port <= 65535) return port;
+            } catch (NumberFormatException ignored) {}
+            throw new InvalidOptionException("Port must be a number between 0 and 65535: " + value);
+        }
+
+        private static int parseWorkers(String value) throws InvalidOptionException {
+            try {
+                int workers = Integer.parseInt(value);
+                if (workers >= 1 && workers <= 256) return workers;
+            } catch (NumberFormatException ignored) {}
+            throw new InvalidOptionException("Workers must be a number between 1 and 256: " + value);
+        }
+
+        private static int parseShards(String value) throws InvalidOptionException {
+            try {
+                int shards = Integer.parseInt(value);
+                if (shards >= 1 && shards <= 256) return shards;
+            } catch (NumberFormatException ignored) {}
+            throw new InvalidOptionException("Shards must be a number between 1 and 256: " + value);
+        }
     }
 
     public static void main(String[] args) {
         Stats stats = new Stats();
         Path catalogPath = null;
         Path logPath = null;
+        List<String> positional = new ArrayList<>();
 
         List<Book> books = new ArrayList<>();
+        IsbnIndex isbnIndex = new IsbnIndex();
+        TitleTrigramIndex titleIndex;
 
         try {
-            if (args.length < 2) {
+            Options options = Options.parse(args, positional);
+            if (options.compactStore) books = new CompactCatalog();
+            if (positional.size() < (options.operationOptional() ? 1 : 2)) {
                 throw new InsufficientArgumentsException(
-                        "Fewer than two command-line arguments provided. Expected: <catalog.txt> <operation>"
+                        "Fewer than two command-line arguments provided. Expected: [options] <catalog.txt> <operation>"
                 );
             }
 
-            String catalogArg = args[0];
+            String catalogArg = positional.get(0);
             if (!catalogArg.toLowerCase().endsWith(".txt")) {
                 throw new InvalidFileNameException("First argument must end with .txt");
             }
@@ -42,21 +198,107 @@ public class LibraryBookTracker {
             ensureCatalogFileAndParentExist(catalogPath);
             logPath = getLogPathNextToCatalog(catalogPath);
 
+            // Every positional after the catalog is an operation, followed by any --queries lines;
+            // they all run, in order, against the one load
+            List<String> ops = new ArrayList<>(positional.subList(1, positional.size()));
+            if (options.queriesSource != null) ops.addAll(readOperations(options.queriesSource));
+            titleIndex = new TitleTrigramIndex(reusesTitleIndex(options, ops));
+
+            if (options.shards > 0) {
+                runSharded(catalogPath, logPath, stats, options, ops);
+                return;
+            }
+            if (options.lsm) {
+                runLsm(catalogPath, logPath, stats, options, ops);
+                return;
+            }
+            if (options.isbnIndex && !options.compact && options.servePort < 0 && options.httpPort < 0
+                    && options.batchAddSource == null && !ops.isEmpty()
+                    && ops.stream().allMatch(LibraryBookTracker::isExactly13Digits)) {
+                runIndexedLookups(catalogPath, logPath, stats, options, ops);
+                return;
+            }
+
+            // Only a lone keyword search can start before the catalog is complete; an ISBN lookup has
+            // to see every record to detect duplicates and an add rewrites the whole catalog
+            BlockingQueue<Book> pipe = null;
+            if (options.pipeline && !options.operationOptional() && ops.size() == 1
+                    && !looksLikeNewRecord(ops.get(0)) && !isExactly13Digits(ops.get(0))) {
+                pipe = new ArrayBlockingQueue<>(PIPELINE_CAPACITY);
+            }
+
             Thread fileThread = new Thread(
-                    new FileReaderTask(catalogPath, logPath, books, stats),
+                    new FileReaderTask(catalogPath, logPath, books, isbnIndex, stats, options, pipe),
                     "FileReader"
             );
 
             Thread opThread = new Thread(
-                    new OperationAnalyzerTask(catalogPath, logPath, books, stats, args[1]),
+                    new OperationAnalyzerTask(catalogPath, logPath, books, isbnIndex, titleIndex, stats, options, ops, pipe),
                     "OperationAnalyzer"
             );
 
-          
-            System.out.println("[Main] Starting FileReader thread...");
-            fileThread.start();
-            fileThread.join();   // WAIT - Thread 1 finishes completely
-            System.out.println("[Main] FileReader finished.");
+            if (pipe != null) {
+                System.out.println("[Main] Starting FileReader and OperationAnalyzer threads (pipelined)...");
+                fileThread.start();
+                opThread.start();
+                fileThread.join();
+                opThread.join();
+                System.out.println("[Main] FileReader and OperationAnalyzer finished.");
+                return;
+            }
+
+            // Adds never check the existing records, so an append-only add (or batch add) can skip the load
+            boolean addsOnly = ops.isEmpty()
+                    ? options.batchAddSource != null
+                    : ops.stream().allMatch(LibraryBookTracker::looksLikeNewRecord);
+            if (options.append && !options.compact && options.servePort < 0 && options.httpPort < 0 && addsOnly) {
+                System.out.println("[Main] Append-only add, catalog not loaded.");
+            } else {
+                System.out.println("[Main] Starting FileReader thread...");
+                fileThread.start();
+                fileThread.join();   // WAIT - Thread 1 finishes completely
+                System.out.println("[Main] FileReader finished.");
+            }
+
+            if (options.batchAddSource != null) {
+                Thread batchThread = new Thread(
+                        new BatchAddTask(catalogPath, logPath, books, isbnIndex, titleIndex, stats, options),
+                        "BatchAdd"
+                );
+                System.out.println("[Main] Starting BatchAdd thread...");
+                batchThread.start();
+                batchThread.join();
+                System.out.println("[Main] BatchAdd finished.");
+            }
+            if (options.compact) {
+                writeCatalog(catalogPath, books);
+                if (options.snapshot) saveSnapshot(catalogPath, logPath, books, 0);
+                System.out.println("[Main] Catalog compacted: " + books.size() + " records in title order.");
+            }
+            // Both long-running modes share one copy-on-write catalog, so an add over either is
+            // visible to the other
+            if (options.servePort >= 0 || options.httpPort >= 0) {
+                ConcurrentCatalog catalog = new ConcurrentCatalog(books, isbnIndex, titleIndex);
+                if (options.httpPort >= 0) {
+                    new CatalogHttpServer(catalogPath, logPath, catalog, stats, options).start(options.httpPort);
+                }
+                if (options.servePort >= 0) {
+                    new CatalogServer(catalogPath, logPath, catalog, stats, options).serve(options.servePort);
+                } else {
+                    Thread.currentThread().join();   // the HTTP server runs until the process is stopped
+                }
+                return;
+            }
+            if (ops.isEmpty()) return;
+
+            if (options.workers > 1 && ops.size() > 1) {
+                System.out.println("[Main] Running " + ops.size() + " operations on " + options.workers
+                        + " worker threads...");
+                new QueryExecutor(catalogPath, logPath, books, isbnIndex, titleIndex, stats, options)
+                        .execute(ops, System.out);
+                System.out.println("[Main] Operations finished.");
+                return;
+            }
 
             System.out.println("[Main] Starting OperationAnalyzer thread...");
             opThread.start();
@@ -64,11 +306,11 @@ public class LibraryBookTracker {
             System.out.println("[Main] OperationAnalyzer finished.");
 
         } catch (BookCatalogException e) {
-            stats.errorsEncountered++;
+            stats.errorsEncountered.increment();
             try {
                 if (catalogPath != null) {
                     logPath = (logPath == null) ? getLogPathNextToCatalog(catalogPath) : logPath;
-                    String offending = (args.length >= 2) ? args[1] : String.join(" ", args);
+                    String offending = (positional.size() >= 2) ? positional.get(1) : String.join(" ", args);
                     if (offending == null || offending.isBlank()) offending = "(no operation provided)";
                     logError(logPath, offending, e);
                 }
@@ -76,7 +318,7 @@ public class LibraryBookTracker {
             System.out.println("Error: " + e.getMessage());
 
         } catch (IOException e) {
-            stats.errorsEncountered++;
+            stats.errorsEncountered.increment();
             try {
                 if (catalogPath != null) {
                     logPath = (logPath == null) ? getLogPathNextToCatalog(catalogPath) : logPath;
@@ -86,12 +328,12 @@ public class LibraryBookTracker {
             System.out.println("Error: I/O failure - " + e.getMessage());
 
         } catch (InterruptedException e) {
-            stats.errorsEncountered++;
+            stats.errorsEncountered.increment();
             System.out.println("Error: Thread interrupted - " + e.getMessage());
             Thread.currentThread().interrupt();
 
         } catch (Exception e) {
-            stats.errorsEncountered++;
+            stats.errorsEncountered.increment();
             try {
                 if (catalogPath != null) {
                     logPath = (logPath == null) ? getLogPathNextToCatalog(catalogPath) : logPath;
@@ -101,11 +343,19 @@ public class LibraryBookTracker {
             System.out.println("Error: Unexpected failure - " + e.getMessage());
 
         } finally {
+            try {
+                ErrorLogger.close();
+            } catch (IOException e) {
+                System.out.println("Error: could not write errors.log - " + e.getMessage());
+            }
+
             System.out.println();
-            System.out.println("Valid records processed: " + stats.validRecordsProcessed);
-            System.out.println("Search results: " + stats.searchResults);
-            System.out.println("Books added: " + stats.booksAdded);
-            System.out.println("Errors encountered: " + stats.errorsEncountered);
+            System.out.println("Valid records processed: " + stats.validRecordsProcessed.sum());
+            System.out.println("Search results: " + stats.searchResults.sum());
+            System.out.println("Books added: " + stats.booksAdded.sum());
+            System.out.println("Errors encountered: " + stats.errorsEncountered.sum());
+            System.out.println("Author memory saved: " + formatBytes(AuthorDictionary.bytesSaved())
+                    + " (" + AuthorDictionary.duplicatesShared() + " repeated author names shared)");
 
             System.out.println();
             System.out.println("Thank you for using the Library Book Tracker.");
@@ -116,121 +366,545 @@ public class LibraryBookTracker {
         private final Path catalogPath;
         private final Path logPath;
         private final List<Book> books;
+        private final IsbnIndex isbnIndex;
         private final Stats stats;
+        private final Options options;
+        private final BlockingQueue<Book> pipe;
 
-        FileReaderTask(Path catalogPath, Path logPath, List<Book> books, Stats stats) {
+        FileReaderTask(Path catalogPath, Path logPath, List<Book> books, IsbnIndex isbnIndex, Stats stats,
+                       Options options) {
+            this(catalogPath, logPath, books, isbnIndex, stats, options, null);
+        }
+
+        // With a pipe, books are handed on one at a time as they are validated instead of being collected
+        FileReaderTask(Path catalogPath, Path logPath, List<Book> books, IsbnIndex isbnIndex, Stats stats,
+                       Options options, BlockingQueue<Book> pipe) {
             this.catalogPath = catalogPath;
             this.logPath = logPath;
             this.books = books;
+            this.isbnIndex = isbnIndex;
             this.stats = stats;
+            this.options = options;
+            this.pipe = pipe;
         }
 
         @Override
         public void run() {
             System.out.println("[" + Thread.currentThread().getName() + "] started");
+            if (pipe != null) {
+                runPipelined();
+                System.out.println("[" + Thread.currentThread().getName() + "] finished");
+                return;
+            }
             try {
-                List<Book> loaded = readValidBooks(catalogPath, logPath, stats);
-                books.clear();
-                books.addAll(loaded);
+                isbnIndex.clear();
+                if (options.snapshot && loadSnapshot()) {
+                    System.out.println("[" + Thread.currentThread().getName() + "] finished");
+                    return;
+                }
+
+                long errorsBefore = stats.errorsEncountered.sum();
+                if (books instanceof CompactCatalog) {
+                    // One line at a time straight into the columns: no List<Book>, no IsbnIndex
+                    books.clear();
+                    streamValidBooks(catalogPath, logPath, stats, books::add);
+                    books.sort(BY_TITLE);
+                    publish(books, false);
+                } else {
+                    List<Book> loaded = options.streaming
+                            ? readValidBooksStreaming(catalogPath, logPath, stats, isbnIndex)
+                            : readValidBooks(catalogPath, logPath, stats, isbnIndex);
+                    loaded.sort(BY_TITLE);
+                    publish(loaded, false);
+                }
 
-                books.sort(Comparator.comparing(b -> b.getTitle().toLowerCase()));
+                if (options.snapshot) {
+                    saveSnapshot(catalogPath, logPath, books, (int) (stats.errorsEncountered.sum() - errorsBefore));
+                }
             } catch (IOException e) {
-                stats.errorsEncountered++;
+                stats.errorsEncountered.increment();
                 try { logError(logPath, "Reading catalog file", e); } catch (Exception ignored) {}
                 System.out.println("Error: I/O failure - " + e.getMessage());
             }
             System.out.println("[" + Thread.currentThread().getName() + "] finished");
         }
+
+        // The snapshot is already validated and sorted, so neither readValidBooks nor the sort runs.
+        // If lines were appended since it was written, only those are parsed and merged in.
+        private boolean loadSnapshot() throws IOException {
+            CatalogSnapshot.Loaded snap = CatalogSnapshot.load(catalogPath);
+            if (snap == null) return false;
+
+            String name = Thread.currentThread().getName();
+            System.out.println("[" + name + "] loaded " + snap.books.size() + " records from "
+                    + CatalogSnapshot.snapshotPath(catalogPath).getFileName());
+            stats.validRecordsProcessed.add(snap.books.size());
+            stats.errorsEncountered.add(snap.rejectedCount);
+
+            List<Book> merged = snap.books;
+            int rejected = snap.rejectedCount;
+            if (snap.tailOffset >= 0) {
+                long errorsBefore = stats.errorsEncountered.sum();
+                List<Book> tail = new ArrayList<>();
+                streamValidBooks(catalogPath, snap.tailOffset, logPath, stats, tail::add);
+                tail.sort(BY_TITLE);
+                System.out.println("[" + name + "] parsed " + tail.size() + " appended records from byte "
+                        + snap.tailOffset);
+
+                merged = mergeByTitle(snap.books, tail);
+                rejected += (int) (stats.errorsEncountered.sum() - errorsBefore);
+            }
+
+            publish(merged, true);
+            if (snap.tailOffset >= 0) saveSnapshot(catalogPath, logPath, books, rejected);
+            return true;
+        }
+
+        // Hands the sorted records to the shared list; a CompactCatalog copies them into its
+        // columns and answers ISBN lookups itself, so the Book objects can be dropped
+        private void publish(List<Book> sorted, boolean needsIndex) {
+            if (sorted != books) {
+                books.clear();
+                books.addAll(sorted);
+            }
+            if (books instanceof CompactCatalog) {
+                isbnIndex.clear();
+                CompactCatalog compact = (CompactCatalog) books;
+                System.out.println("[" + Thread.currentThread().getName() + "] compact store: " + compact.size()
+                        + " records, ~" + (compact.estimatedBytes() / Math.max(1, compact.size())) + " bytes/record");
+            } else if (needsIndex) {
+                for (Book b : books) isbnIndex.add(b);
+            }
+        }
+
+        private void runPipelined() {
+            try {
+                streamValidBooks(catalogPath, logPath, stats, b -> {
+                    try {
+                        pipe.put(b);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (IOException e) {
+                stats.errorsEncountered.increment();
+                try { logError(logPath, "Reading catalog file", e); } catch (Exception ignored) {}
+                System.out.println("Error: I/O failure - " + e.getMessage());
+            } finally {
+                // The consumer blocks until it sees this, so it must go out even after a failure
+                try {
+                    pipe.put(END_OF_CATALOG);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
     }
 
     static class OperationAnalyzerTask implements Runnable {
         private final Path catalogPath;
         private final Path logPath;
         private final List<Book> books;
+        private final IsbnIndex isbnIndex;
+        private final TitleTrigramIndex titleIndex;
         private final Stats stats;
-        private final String op;
+        private final Options options;
+        private final List<String> ops;
+        private final BlockingQueue<Book> pipe;
+
+        OperationAnalyzerTask(Path catalogPath, Path logPath, List<Book> books, IsbnIndex isbnIndex,
+                              TitleTrigramIndex titleIndex, Stats stats, Options options, String op) {
+            this(catalogPath, logPath, books, isbnIndex, titleIndex, stats, options,
+                    Collections.singletonList(op), null);
+        }
 
-        OperationAnalyzerTask(Path catalogPath, Path logPath, List<Book> books, Stats stats, String op) {
+        // Runs every operation in turn; with a pipe, the (single) keyword search matches books as
+        // FileReaderTask hands them over
+        OperationAnalyzerTask(Path catalogPath, Path logPath, List<Book> books, IsbnIndex isbnIndex,
+                              TitleTrigramIndex titleIndex, Stats stats, Options options, List<String> ops,
+                              BlockingQueue<Book> pipe) {
             this.catalogPath = catalogPath;
             this.logPath = logPath;
             this.books = books;
+            this.isbnIndex = isbnIndex;
+            this.titleIndex = titleIndex;
             this.stats = stats;
-            this.op = op;
+            this.options = options;
+            this.ops = ops;
+            this.pipe = pipe;
         }
 
         @Override
         public void run() {
             System.out.println("[" + Thread.currentThread().getName() + "] started");
+            try {
+                execute(System.out);
+            } finally {
+                System.out.println("[" + Thread.currentThread().getName() + "] finished");
+            }
+        }
+
+        // Runs the operations and prints their rows (or errors) to out; also used by CatalogServer.
+        // Stats accumulate across operations; with more than one, each table gets a heading line.
+        void execute(PrintStream out) {
+            for (int i = 0; i < ops.size(); i++) {
+                if (ops.size() > 1) printOperationHeading(out, i, ops.size(), ops.get(i));
+                execute(ops.get(i), out);
+            }
+        }
+
+        static void printOperationHeading(PrintStream out, int i, int count, String op) {
+            if (i > 0) out.println();
+            out.println("Operation " + (i + 1) + "/" + count + ": " + op);
+        }
+
+        private void execute(String op, PrintStream out) {
             try {
                 if (looksLikeNewRecord(op)) {
                     try {
                         Book newBook = parseAndValidateBookRecord(op);
-                        books.add(newBook);
-                        books.sort(Comparator.comparing(b -> b.getTitle().toLowerCase()));
-                        writeCatalog(catalogPath, books);
-                        stats.booksAdded = 1;
+                        addToCatalog(catalogPath, logPath, books, isbnIndex, titleIndex, options, newBook);
+                        stats.booksAdded.increment();
 
-                        printHeader();
-                        printBookRow(newBook);
+                        printHeader(out);
+                        printBookRow(out, newBook);
 
                     } catch (BookCatalogException e) {
-                        stats.errorsEncountered++;
+                        stats.errorsEncountered.increment();
                         logError(logPath, op, e);
-                        System.out.println("Error: " + e.getMessage());
+                        out.println("Error: " + e.getMessage());
                     }
 
                 } else if (isExactly13Digits(op)) {
-                    List<Book> matches = new ArrayList<>();
-                    for (Book b : books) {
-                        if (b.getIsbn().equals(op)) matches.add(b);
-                    }
+                    List<Book> matches = lookupIsbn(books, isbnIndex, op);
 
                     if (matches.size() > 1) {
                         throw new DuplicateISBNException("More than one book with this ISBN was found: " + op);
                     }
 
-                    printHeader();
+                    printHeader(out);
                     if (matches.size() == 1) {
-                        printBookRow(matches.get(0));
-                        stats.searchResults = 1;
-                    } else {
-                        stats.searchResults = 0;
+                        printBookRow(out, matches.get(0));
+                        stats.searchResults.increment();
                     }
 
-                } else {
+                } else if (pipe != null) {
                     String keyword = op.toLowerCase();
-                    printHeader();
+                    printHeader(out);
 
                     int count = 0;
-                    for (Book b : books) {
-                        if (b.getTitle().toLowerCase().contains(keyword)) {
-                            printBookRow(b);
+                    for (Book b = pipe.take(); b != END_OF_CATALOG; b = pipe.take()) {
+                        if (b.getTitleKey().contains(keyword)) {
+                            printBookRow(out, b);
                             count++;
                         }
                     }
-                    stats.searchResults = count;
+                    stats.searchResults.add(count);
+
+                } else {
+                    String keyword = op.toLowerCase();
+                    printHeader(out);
+
+                    List<Book> matches = titleIndex.search(books, keyword);
+                    for (Book b : matches) printBookRow(out, b);
+                    stats.searchResults.add(matches.size());
                 }
 
             } catch (BookCatalogException e) {
-                stats.errorsEncountered++;
+                stats.errorsEncountered.increment();
                 try { logError(logPath, op, e); } catch (Exception ignored) {}
-                System.out.println("Error: " + e.getMessage());
+                out.println("Error: " + e.getMessage());
 
             } catch (IOException e) {
-                stats.errorsEncountered++;
+                stats.errorsEncountered.increment();
                 try { logError(logPath, "I/O operation", e); } catch (Exception ignored) {}
-                System.out.println("Error: I/O failure - " + e.getMessage());
+                out.println("Error: I/O failure - " + e.getMessage());
+
+            } catch (InterruptedException e) {
+                stats.errorsEncountered.increment();
+                out.println("Error: Thread interrupted - " + e.getMessage());
+                Thread.currentThread().interrupt();
 
             } catch (Exception e) {
-                stats.errorsEncountered++;
+                stats.errorsEncountered.increment();
                 try { logError(logPath, "Unexpected error", e); } catch (Exception ignored) {}
-                System.out.println("Error: Unexpected failure - " + e.getMessage());
-            } finally {
-                System.out.println("[" + Thread.currentThread().getName() + "] finished");
+                out.println("Error: Unexpected failure - " + e.getMessage());
             }
         }
     }
 
+    // --batch-add: validates every record of the batch in parallel, then logs the rejects in
+    // input order and merges the valid ones into the loaded catalog with one writeCatalog
+    static class BatchAddTask implements Runnable {
+        private final Path catalogPath;
+        private final Path logPath;
+        private final List<Book> books;
+        private final IsbnIndex isbnIndex;
+        private final TitleTrigramIndex titleIndex;
+        private final Stats stats;
+        private final Options options;
+
+        BatchAddTask(Path catalogPath, Path logPath, List<Book> books, IsbnIndex isbnIndex,
+                     TitleTrigramIndex titleIndex, Stats stats, Options options) {
+            this.catalogPath = catalogPath;
+            this.logPath = logPath;
+            this.books = books;
+            this.isbnIndex = isbnIndex;
+            this.titleIndex = titleIndex;
+            this.stats = stats;
+            this.options = options;
+        }
+
+        @Override
+        public void run() {
+            String name = Thread.currentThread().getName();
+            System.out.println("[" + name + "] started");
+            try {
+                List<String> records = readBatch(options.batchAddSource);
+
+                Book[] parsed = new Book[records.size()];
+                BookCatalogException[] rejected = new BookCatalogException[records.size()];
+                IntStream.range(0, records.size()).parallel().forEach(i -> {
+                    try {
+                        parsed[i] = parseAndValidateBookRecord(records.get(i));
+                    } catch (BookCatalogException e) {
+                        rejected[i] = e;
+                    }
+                });
+
+                List<Book> added = new ArrayList<>();
+                for (int i = 0; i < parsed.length; i++) {
+                    if (rejected[i] != null) {
+                        stats.errorsEncountered.increment();
+                        logError(logPath, records.get(i), rejected[i]);
+                    } else {
+                        added.add(parsed[i]);
+                    }
+                }
+
+                if (options.append) {
+                    appendCatalogLines(catalogPath, added);
+                } else if (!added.isEmpty()) {
+                    // Stable sort then merge: each record lands where a run of single adds would put it
+                    added.sort(BY_TITLE);
+                    List<Book> merged = mergeByTitle(books, added);
+                    books.clear();
+                    books.addAll(merged);
+                    if (!(books instanceof CompactCatalog)) {
+                        for (Book b : added) isbnIndex.add(b);
+                    }
+                    titleIndex.invalidate();
+
+                    writeCatalog(catalogPath, books);
+                    if (options.snapshot) saveSnapshot(catalogPath, logPath, books, 0);
+                }
+                stats.booksAdded.add(added.size());
+                System.out.println("[" + name + "] added " + added.size() + " records, rejected "
+                        + (records.size() - added.size()));
+
+            } catch (IOException e) {
+                stats.errorsEncountered.increment();
+                try { logError(logPath, "Reading batch " + options.batchAddSource, e); } catch (Exception ignored) {}
+                System.out.println("Error: I/O failure - " + e.getMessage());
+            }
+            System.out.println("[" + name + "] finished");
+        }
+
+        // Trimmed, non-blank lines of the batch file, or of stdin for "-"
+        private static List<String> readBatch(String source) throws IOException {
+            List<String> records = new ArrayList<>();
+            try (BufferedReader br = openInput(source)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String trimmed = line.trim();
+                    if (!trimmed.isEmpty()) records.add(trimmed);
+                }
+            }
+            return records;
+        }
+    }
+
+    // The trigram index only pays for its build when more than one search reads it: the
+    // long-running modes, or several keyword searches in the one run
+    static boolean reusesTitleIndex(Options options, List<String> ops) {
+        if (options.servePort >= 0 || options.httpPort >= 0) return true;
+        int searches = 0;
+        for (String op : ops) {
+            if (!looksLikeNewRecord(op) && !isExactly13Digits(op)) searches++;
+        }
+        return searches > 1;
+    }
+
+    // --shards: load every shard concurrently, then run the operations in order across them
+    private static void runSharded(Path catalogPath, Path logPath, Stats stats, Options options, List<String> ops)
+            throws IOException, BookCatalogException, InterruptedException {
+        ShardedCatalog sharded = new ShardedCatalog(catalogPath, logPath, stats, options,
+                reusesTitleIndex(options, ops));
+        System.out.println("[Main] Starting " + options.shards + " FileReader threads...");
+        sharded.load();
+        System.out.println("[Main] FileReaders finished: " + sharded.size() + " records in "
+                + options.shards + " shards.");
+
+        if (options.compact) {
+            sharded.writeAll();
+            System.out.println("[Main] Shards compacted.");
+        }
+        for (int i = 0; i < ops.size(); i++) {
+            if (ops.size() > 1) OperationAnalyzerTask.printOperationHeading(System.out, i, ops.size(), ops.get(i));
+            sharded.execute(ops.get(i), System.out);
+        }
+    }
+
+    // --lsm: open the store (segments plus replayed log), then run the operations in order; the
+    // store is closed only after any background compaction has finished
+    private static void runLsm(Path catalogPath, Path logPath, Stats stats, Options options, List<String> ops)
+            throws IOException {
+        try (LsmCatalog lsm = new LsmCatalog(catalogPath, logPath, stats, options, reusesTitleIndex(options, ops))) {
+            lsm.open();
+            System.out.println("[Main] Opened " + LsmCatalog.storePath(catalogPath).getFileName() + ": "
+                    + lsm.size() + " records (" + lsm.segmentCount() + " segments, "
+                    + lsm.memtableSize() + " in the memtable).");
+
+            for (int i = 0; i < ops.size(); i++) {
+                if (ops.size() > 1) OperationAnalyzerTask.printOperationHeading(System.out, i, ops.size(), ops.get(i));
+                lsm.execute(ops.get(i), System.out);
+            }
+            if (options.compact) {
+                lsm.export();
+                System.out.println("[Main] Exported " + lsm.size() + " records in title order to "
+                        + catalogPath.getFileName() + ".");
+            }
+        }
+    }
+
+    // --isbn-index with only ISBN lookups: each one is a B+tree descent plus a parse of the matching
+    // lines. The tree is rebuilt first (one scan, which logs invalid lines like a load) when it is
+    // missing or no longer matches the catalog. Output and Stats are those of a full load.
+    private static void runIndexedLookups(Path catalogPath, Path logPath, Stats stats, Options options,
+                                          List<String> ops) throws IOException {
+        Path indexPath = IsbnBPlusTree.indexPath(catalogPath);
+        IsbnBPlusTree current = IsbnBPlusTree.openIfCurrent(catalogPath, false);
+        if (current == null) {
+            System.out.println("[Main] Building " + indexPath.getFileName() + "...");
+            IsbnBPlusTree.rebuildByScan(catalogPath, logPath, stats);
+            current = IsbnBPlusTree.openIfCurrent(catalogPath, false);
+            if (current == null) throw new IOException("Catalog changed while " + indexPath.getFileName() + " was built");
+        } else {
+            stats.validRecordsProcessed.add(current.entryCount());
+            stats.errorsEncountered.add(current.rejectedCount());
+        }
+
+        System.out.println("[Main] Answering " + ops.size() + " ISBN lookups from " + indexPath.getFileName()
+                + ", catalog not loaded.");
+        try (IsbnBPlusTree tree = current) {
+            for (int i = 0; i < ops.size(); i++) {
+                String op = ops.get(i);
+                if (ops.size() > 1) OperationAnalyzerTask.printOperationHeading(System.out, i, ops.size(), op);
+
+                List<Book> found = tree.find(catalogPath, op);
+                IsbnIndex foundIndex = new IsbnIndex();
+                for (Book b : found) foundIndex.add(b);
+                new OperationAnalyzerTask(catalogPath, logPath, found, foundIndex, new TitleTrigramIndex(),
+                        stats, options, op).execute(System.out);
+            }
+        }
+    }
+
+    // Puts a validated book into the sorted list and its indexes, then persists it; shared by the
+    // add operation and CatalogHttpServer
+    static void addToCatalog(Path catalogPath, Path logPath, List<Book> books, IsbnIndex isbnIndex,
+                             TitleTrigramIndex titleIndex, Options options, Book newBook) throws IOException {
+        insertSorted(books, newBook);
+        if (!(books instanceof CompactCatalog)) isbnIndex.add(newBook);
+        titleIndex.invalidate();
+        if (options.append) {
+            appendCatalogLine(catalogPath, newBook);
+        } else {
+            writeCatalog(catalogPath, books);
+            // The rewrite drops invalid lines, so the new snapshot has none to count
+            if (options.snapshot) saveSnapshot(catalogPath, logPath, books, 0);
+        }
+    }
+
+    // A --batch-add or --queries source: a file path, or "-" for stdin
+    static BufferedReader openInput(String source) throws IOException {
+        if (source.equals("-")) return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        return Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8);
+    }
+
+    // Non-blank lines, untrimmed, exactly as a client of CatalogServer would send them
+    private static List<String> readOperations(String source) throws IOException {
+        List<String> ops = new ArrayList<>();
+        try (BufferedReader br = openInput(source)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isBlank()) ops.add(line);
+            }
+        }
+        return ops;
+    }
+
+    // Binary-searches the upper bound, so a new book lands after any equal titles - the same
+    // place appending and re-sorting (a stable sort) would put it
+    static int insertSorted(List<Book> books, Book b) {
+        int lo = 0, hi = books.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BY_TITLE.compare(books.get(mid), b) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        books.add(lo, b);
+        return lo;
+    }
+
+    // Both lists are title-sorted; ties go to the older record, exactly as a stable sort of
+    // the whole file would order them
+    static List<Book> mergeByTitle(List<Book> older, List<Book> newer) {
+        List<Book> out = new ArrayList<>(older.size() + newer.size());
+        int i = 0, j = 0;
+        while (i < older.size() && j < newer.size()) {
+            if (BY_TITLE.compare(newer.get(j), older.get(i)) < 0) {
+                out.add(newer.get(j++));
+            } else {
+                out.add(older.get(i++));
+            }
+        }
+        while (i < older.size()) out.add(older.get(i++));
+        while (j < newer.size()) out.add(newer.get(j++));
+        return out;
+    }
+
+    // k-way version for ShardedCatalog and LsmCatalog: every list is title-sorted, and equal
+    // titles come out in list order
+    static List<Book> mergeAllByTitle(List<List<Book>> lists) {
+        // Heap entries are {list, position}
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> {
+            int c = BY_TITLE.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+            return (c != 0) ? c : Integer.compare(a[0], b[0]);
+        });
+        int total = 0;
+        for (int i = 0; i < lists.size(); i++) {
+            total += lists.get(i).size();
+            if (!lists.get(i).isEmpty()) heads.add(new int[]{i, 0});
+        }
+
+        List<Book> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<Book> list = lists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) heads.add(head);
+        }
+        return merged;
+    }
+
+    // A CompactCatalog scans its packed ISBN column; holding every Book in the hash index would
+    // undo the memory it saves
+    static List<Book> lookupIsbn(List<Book> books, IsbnIndex isbnIndex, String isbn) {
+        if (books instanceof CompactCatalog) return ((CompactCatalog) books).findByIsbn(isbn);
+        return isbnIndex.lookup(isbn);
+    }
+
     private static void ensureCatalogFileAndParentExist(Path catalogPath) throws IOException {
         Path parent = catalogPath.toAbsolutePath().getParent();
         if (parent != null) Files.createDirectories(parent);
@@ -244,22 +918,21 @@ public class LibraryBookTracker {
         return parent.resolve("errors.log");
     }
 
-    private static void logError(Path logPath, String offendingText, Exception e) throws IOException {
+    // The line is formatted (and timestamped) here; ErrorLogger's writer thread does the file I/O
+    static void logError(Path logPath, String offendingText, Exception e) throws IOException {
         String ts = LocalDateTime.now().toString();
         String line = String.format("[%s] INVALID: \"%s\" - %s: %s",
                 ts, offendingText, e.getClass().getSimpleName(), e.getMessage()
         );
+        ErrorLogger.log(logPath, line);
+    }
 
-        try (BufferedWriter bw = Files.newBufferedWriter(
-                logPath, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND
-        )) {
-            bw.write(line);
-            bw.newLine();
+    private static List<Book> readValidBooks(Path catalogPath, Path logPath, Stats stats,
+                                             IsbnIndex isbnIndex) throws IOException {
+        if (ParallelCatalogLoader.shouldUse(catalogPath)) {
+            return readValidBooksParallel(catalogPath, logPath, stats, isbnIndex);
         }
-    }
 
-    private static List<Book> readValidBooks(Path catalogPath, Path logPath, Stats stats) throws IOException {
         List<Book> books = new ArrayList<>();
         List<String> lines = Files.readAllLines(catalogPath, StandardCharsets.UTF_8);
 
@@ -271,56 +944,204 @@ public class LibraryBookTracker {
             try {
                 Book b = parseAndValidateBookRecord(trimmed);
                 books.add(b);
-                stats.validRecordsProcessed++;
+                isbnIndex.add(b);
+                stats.validRecordsProcessed.increment();
             } catch (BookCatalogException e) {
-                stats.errorsEncountered++;
+                stats.errorsEncountered.increment();
                 logError(logPath, trimmed, e);
             }
         }
         return books;
     }
 
-    private static void writeCatalog(Path catalogPath, List<Book> books) throws IOException {
+    // Chunks are parsed concurrently but merged here in file order, so counters,
+    // book order and errors.log entries match the sequential read
+    private static List<Book> readValidBooksParallel(Path catalogPath, Path logPath, Stats stats,
+                                                     IsbnIndex isbnIndex) throws IOException {
+        List<Book> books = new ArrayList<>();
+        for (ParallelCatalogLoader.ChunkResult chunk : ParallelCatalogLoader.load(catalogPath)) {
+            for (Book b : chunk.books) {
+                books.add(b);
+                isbnIndex.add(b);
+                stats.validRecordsProcessed.increment();
+            }
+            for (int i = 0; i < chunk.errors.size(); i++) {
+                stats.errorsEncountered.increment();
+                logError(logPath, chunk.rejectedLines.get(i), chunk.errors.get(i));
+            }
+        }
+        return books;
+    }
+
+    // Bounded-memory load: only the current line is held as text, so peak heap is the parsed
+    // catalog rather than every raw line plus the parsed catalog
+    private static List<Book> readValidBooksStreaming(Path catalogPath, Path logPath, Stats stats,
+                                                      IsbnIndex isbnIndex) throws IOException {
+        List<Book> books = new ArrayList<>();
+        streamValidBooks(catalogPath, logPath, stats, b -> {
+            books.add(b);
+            isbnIndex.add(b);
+        });
+        return books;
+    }
+
+    static void streamValidBooks(Path catalogPath, Path logPath, Stats stats, Consumer<Book> sink)
+            throws IOException {
+        streamValidBooks(catalogPath, 0, logPath, stats, sink);
+    }
+
+    // Same, starting at a byte offset that must be the start of a line
+    static void streamValidBooks(Path catalogPath, long offset, Path logPath, Stats stats, Consumer<Book> sink)
+            throws IOException {
+        try (SeekableByteChannel ch = Files.newByteChannel(catalogPath, StandardOpenOption.READ).position(offset);
+             BufferedReader br = new BufferedReader(Channels.newReader(ch, StandardCharsets.UTF_8.newDecoder(), -1))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Catalog load interrupted");
+                }
+                String trimmed = line.trim();
+                if (trimmed.isEmpty()) continue;
+
+                try {
+                    Book b = parseAndValidateBookRecord(trimmed);
+                    stats.validRecordsProcessed.increment();
+                    sink.accept(b);
+                } catch (BookCatalogException e) {
+                    stats.errorsEncountered.increment();
+                    logError(logPath, trimmed, e);
+                }
+            }
+        }
+    }
+
+    // Also rebuilds the ISBN B+tree when there is one, so it never describes an older file
+    static void writeCatalog(Path catalogPath, List<Book> books) throws IOException {
         List<String> out = new ArrayList<>();
         for (Book b : books) out.add(b.toCatalogLine());
         Files.write(catalogPath, out, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+        if (Files.exists(IsbnBPlusTree.indexPath(catalogPath))) IsbnBPlusTree.rebuildAfterWrite(catalogPath, books);
+    }
+
+    // A stale or missing snapshot only costs the next run a full load, so failures are logged, not fatal
+    static void saveSnapshot(Path catalogPath, Path logPath, List<Book> books, int rejectedCount) {
+        try {
+            CatalogSnapshot.write(catalogPath, books, rejectedCount);
+        } catch (IOException e) {
+            try { logError(logPath, "Writing catalog snapshot", e); } catch (Exception ignored) {}
+            System.out.println("Warning: catalog snapshot not written - " + e.getMessage());
+        }
+    }
+
+    // Writes only the new record at the end of the file; title order comes back with --compact
+    private static void appendCatalogLine(Path catalogPath, Book b) throws IOException {
+        appendCatalogLines(catalogPath, List.of(b));
+    }
+
+    // A current ISBN B+tree gets the new lines inserted; a stale one is left for the next
+    // --isbn-index run to rebuild
+    private static void appendCatalogLines(Path catalogPath, List<Book> added) throws IOException {
+        if (added.isEmpty()) return;
+        IsbnBPlusTree tree = IsbnBPlusTree.openIfCurrent(catalogPath, true);
+        try {
+            long offset = Files.size(catalogPath);
+            StringBuilder lines = new StringBuilder();
+            if (!endsWithLineBreak(catalogPath)) {
+                lines.append(System.lineSeparator());
+                offset += System.lineSeparator().length();
+            }
+            for (Book b : added) lines.append(b.toCatalogLine()).append(System.lineSeparator());
+            Files.write(catalogPath, lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+            if (tree != null) {
+                for (Book b : added) {
+                    String line = b.toCatalogLine();
+                    tree.insert(IsbnIndex.pack(b.getIsbn()), offset);
+                    offset += IsbnBPlusTree.utf8Length(line) + System.lineSeparator().length();
+                }
+                tree.markCurrent(catalogPath);
+            }
+        } finally {
+            if (tree != null) tree.close();
+        }
+    }
+
+    static boolean endsWithLineBreak(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return true;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            ch.read(last, size - 1);
+            byte b = last.get(0);
+            return b == '\n' || b == '\r';
+        }
     }
 
-    private static boolean looksLikeNewRecord(String s) {
+    static boolean looksLikeNewRecord(String s) {
         if (s == null) return false;
         String[] parts = s.split(":", -1);
         return parts.length == 4;
     }
 
-    private static Book parseAndValidateBookRecord(String record) throws BookCatalogException {
+    // Every record validation failure has a fixed message, so each one is a single shared,
+    // stackless instance: rejecting a line costs no allocation and no stack walk
+    static final MalformedBookEntryException WRONG_FIELD_COUNT = MalformedBookEntryException.shared(
+            "Book entry must have exactly 4 fields: Title:Author:ISBN:Copies");
+    static final MalformedBookEntryException EMPTY_TITLE = MalformedBookEntryException.shared("Title is empty");
+    static final MalformedBookEntryException EMPTY_AUTHOR = MalformedBookEntryException.shared("Author is empty");
+    static final InvalidISBNException BAD_ISBN = InvalidISBNException.shared(
+            "ISBN is not exactly 13 digits or contains non-numeric characters");
+    static final MalformedBookEntryException BAD_COPIES = MalformedBookEntryException.shared(
+            "Copies is not a valid integer");
+    static final MalformedBookEntryException NON_POSITIVE_COPIES = MalformedBookEntryException.shared(
+            "Copies must be a positive integer");
+
+    static Book parseAndValidateBookRecord(String record) throws BookCatalogException {
         String[] parts = record.split(":", -1);
-        if (parts.length != 4) {
-            throw new MalformedBookEntryException("Book entry must have exactly 4 fields: Title:Author:ISBN:Copies");
-        }
+        if (parts.length != 4) throw WRONG_FIELD_COUNT;
 
         String title = parts[0].trim();
         String author = parts[1].trim();
         String isbn = parts[2].trim();
         String copiesStr = parts[3].trim();
 
-        if (title.isEmpty()) throw new MalformedBookEntryException("Title is empty");
-        if (author.isEmpty()) throw new MalformedBookEntryException("Author is empty");
-        if (!isExactly13Digits(isbn)) {
-            throw new InvalidISBNException("ISBN is not exactly 13 digits or contains non-numeric characters");
-        }
+        if (title.isEmpty()) throw EMPTY_TITLE;
+        if (author.isEmpty()) throw EMPTY_AUTHOR;
+        if (!isExactly13Digits(isbn)) throw BAD_ISBN;
 
-        int copies;
-        try {
-            copies = Integer.parseInt(copiesStr);
-        } catch (NumberFormatException e) {
-            throw new MalformedBookEntryException("Copies is not a valid integer");
+        long copies = parseCopies(copiesStr);
+        if (copies == Long.MIN_VALUE) throw BAD_COPIES;
+        if (copies <= 0) throw NON_POSITIVE_COPIES;
+
+        return new Book(title, AuthorDictionary.canonical(author), isbn, (int) copies);
+    }
+
+    // Integer.parseInt rules without the NumberFormatException (and its stack trace);
+    // Long.MIN_VALUE means "not a valid int"
+    private static long parseCopies(String s) {
+        int i = 0;
+        int len = s.length();
+        boolean negative = false;
+        if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i++;
         }
-        if (copies <= 0) throw new MalformedBookEntryException("Copies must be a positive integer");
+        if (i == len) return Long.MIN_VALUE;
 
-        return new Book(title, author, isbn, copies);
+        long value = 0;
+        for (; i < len; i++) {
+            int d = Character.digit(s.charAt(i), 10);
+            if (d < 0) return Long.MIN_VALUE;
+            value = value * 10 + d;
+            if (value > (long) Integer.MAX_VALUE + 1) return Long.MIN_VALUE;
+        }
+        if (negative) value = -value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) return Long.MIN_VALUE;
+        return value;
     }
 
-    private static boolean isExactly13Digits(String s) {
+    static boolean isExactly13Digits(String s) {
         if (s == null) return false;
         if (s.length() != 13) return false;
         for (int i = 0; i < s.length(); i++) {
@@ -329,11 +1150,17 @@ public class LibraryBookTracker {
         return true;
     }
 
-    private static void printHeader() {
-        System.out.printf(HEADER_FORMAT, "Title", "Author", "ISBN", "Copies");
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    static void printHeader(PrintStream out) {
+        out.printf(HEADER_FORMAT, "Title", "Author", "ISBN", "Copies");
     }
 
-    private static void printBookRow(Book b) {
-        System.out.printf(ROW_FORMAT, b.getTitle(), b.getAuthor(), b.getIsbn(), b.getCopies());
+    static void printBookRow(PrintStream out, Book b) {
+        out.printf(ROW_FORMAT, b.getTitle(), b.getAuthor(), b.getIsbn(), b.getCopies());
     }
 }
@@ -0,0 +1,418 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// --lsm: the catalog lives in a log-structured store, the directory <catalog>.lsm next to
+// catalog.txt:
+//   MANIFEST            the current write-ahead log generation and the live segments, oldest first
+//   wal-<gen>.log       every add since the last flush, one Title:Author:ISBN:Copies line each
+//   segment-<n>.txt     immutable catalog files in title order
+// An add is one append (and fsync) to the log plus an insert into the memtable, the sorted list of
+// records not in a segment yet. A full memtable is flushed to a new segment and the log starts a
+// new generation. Once there are more than MAX_SEGMENTS segments, a background Compaction thread
+// merges them into one, streaming the files, and swaps it in with a new MANIFEST.
+//
+// The load merges every segment and the memtable (equal titles in segment order, then the
+// memtable) into one read view, kept in title order by later adds, so lookups and searches are
+// those of OperationAnalyzerTask. catalog.txt is only the export format: the first --lsm run
+// imports it, and --compact writes the merged catalog back to it.
+class LsmCatalog implements Closeable {
+    private static final int MEMTABLE_LIMIT = 4096;
+    private static final int MAX_SEGMENTS = 4;
+
+    private final Path catalogPath;
+    private final Path logPath;
+    private final Path dir;
+    private final LibraryBookTracker.Stats stats;
+    private final LibraryBookTracker.Options options;
+
+    // Read view: every segment plus the memtable
+    private final List<Book> books;
+    private final IsbnIndex isbnIndex = new IsbnIndex();
+    private final TitleTrigramIndex titleIndex;
+
+    private final List<Book> memtable = new ArrayList<>();
+    private FileChannel wal;
+
+    // Guards the manifest state, which the Compaction thread also changes
+    private final Object manifestLock = new Object();
+    private final List<String> segments = new ArrayList<>();
+    private long walGeneration;
+    private int nextSegment;
+    private Thread compaction;
+    private volatile Exception compactionFailure;
+
+    LsmCatalog(Path catalogPath, Path logPath, LibraryBookTracker.Stats stats, LibraryBookTracker.Options options,
+               boolean indexTitles) {
+        this.catalogPath = catalogPath;
+        this.logPath = logPath;
+        this.dir = storePath(catalogPath);
+        this.stats = stats;
+        this.options = options;
+        this.books = options.compactStore ? new CompactCatalog() : new ArrayList<>();
+        this.titleIndex = new TitleTrigramIndex(indexTitles);
+    }
+
+    static Path storePath(Path catalogPath) {
+        String name = catalogPath.getFileName().toString();
+        return catalogPath.resolveSibling(name.substring(0, name.length() - ".txt".length()) + ".lsm");
+    }
+
+    int size() {
+        return books.size();
+    }
+
+    int segmentCount() {
+        synchronized (manifestLock) {
+            return segments.size();
+        }
+    }
+
+    int memtableSize() {
+        return memtable.size();
+    }
+
+    // Imports catalog.txt on the first run, drops files an interrupted flush or compaction left
+    // behind, then loads the segments and replays the log
+    void open() throws IOException {
+        Files.createDirectories(dir);
+        if (!Files.exists(dir.resolve("MANIFEST"))) importCatalog();
+        readManifest();
+        removeUnreferencedFiles();
+
+        List<List<Book>> sources = new ArrayList<>();
+        for (String name : segments) {
+            List<Book> segment = new ArrayList<>();
+            LibraryBookTracker.streamValidBooks(dir.resolve(name), logPath, stats, segment::add);
+            sources.add(segment);
+        }
+
+        Path walPath = walPath(walGeneration);
+        if (Files.exists(walPath)) {
+            truncateTornTail(walPath);
+            LibraryBookTracker.streamValidBooks(walPath, logPath, stats, b -> LibraryBookTracker.insertSorted(memtable, b));
+        }
+        sources.add(memtable);
+
+        books.addAll(LibraryBookTracker.mergeAllByTitle(sources));
+        if (!(books instanceof CompactCatalog)) {
+            for (Book b : books) isbnIndex.add(b);
+        }
+
+        wal = FileChannel.open(walPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        maybeCompact();
+    }
+
+    // Adds go to the store; lookups and searches run on the read view exactly as without --lsm
+    void execute(String op, PrintStream out) {
+        if (!LibraryBookTracker.looksLikeNewRecord(op)) {
+            new LibraryBookTracker.OperationAnalyzerTask(catalogPath, logPath, books, isbnIndex, titleIndex,
+                    stats, options, op).execute(out);
+            return;
+        }
+
+        try {
+            Book newBook = LibraryBookTracker.parseAndValidateBookRecord(op);
+            add(newBook);
+            stats.booksAdded.increment();
+
+            LibraryBookTracker.printHeader(out);
+            LibraryBookTracker.printBookRow(out, newBook);
+
+        } catch (BookCatalogException e) {
+            stats.errorsEncountered.increment();
+            try { LibraryBookTracker.logError(logPath, op, e); } catch (Exception ignored) {}
+            out.println("Error: " + e.getMessage());
+
+        } catch (IOException e) {
+            stats.errorsEncountered.increment();
+            try { LibraryBookTracker.logError(logPath, "I/O operation", e); } catch (Exception ignored) {}
+            out.println("Error: I/O failure - " + e.getMessage());
+        }
+    }
+
+    // The record is durable in the log before it is visible
+    void add(Book b) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((b.toCatalogLine() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) wal.write(line);
+        wal.force(false);
+
+        LibraryBookTracker.insertSorted(memtable, b);
+        LibraryBookTracker.insertSorted(books, b);
+        if (!(books instanceof CompactCatalog)) isbnIndex.add(b);
+        titleIndex.invalidate();
+
+        if (memtable.size() >= MEMTABLE_LIMIT) flush();
+    }
+
+    // An add that died partway through its write leaves a partial last line. It was never
+    // acknowledged, so it is cut off before the replay instead of being joined to the next add.
+    private static void truncateTornTail(Path walPath) throws IOException {
+        try (FileChannel ch = FileChannel.open(walPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            long end = ch.size();
+            while (end > 0) {
+                int n = (int) Math.min(buf.capacity(), end);
+                long start = end - n;
+                buf.clear().limit(n);
+                while (buf.hasRemaining() && ch.read(buf, start + buf.position()) >= 0) {}
+                for (int i = n - 1; i >= 0; i--) {
+                    byte c = buf.get(i);
+                    if (c == '\n' || c == '\r') {
+                        cut(ch, start + i + 1);
+                        return;
+                    }
+                }
+                end = start;
+            }
+            cut(ch, 0);
+        }
+    }
+
+    private static void cut(FileChannel ch, long length) throws IOException {
+        if (length == ch.size()) return;
+        ch.truncate(length);
+        ch.force(false);
+    }
+
+    // --compact: the merged catalog, in title order, back in catalog.txt
+    void export() throws IOException {
+        LibraryBookTracker.writeCatalog(catalogPath, books);
+    }
+
+    // The new MANIFEST is the commit point: until it is written the old log still holds the
+    // memtable, and afterwards the segment does
+    private void flush() throws IOException {
+        String name;
+        long generation;
+        synchronized (manifestLock) {
+            name = segmentName(nextSegment++);
+            generation = walGeneration + 1;
+        }
+        writeSegment(name, memtable);
+
+        FileChannel next = FileChannel.open(walPath(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        synchronized (manifestLock) {
+            segments.add(name);
+            walGeneration = generation;
+            writeManifest();
+        }
+        wal.close();
+        wal = next;
+        Files.deleteIfExists(walPath(generation - 1));
+        memtable.clear();
+
+        maybeCompact();
+    }
+
+    private void maybeCompact() {
+        synchronized (manifestLock) {
+            if (segments.size() <= MAX_SEGMENTS || (compaction != null && compaction.isAlive())) return;
+            compaction = new Thread(() -> {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    compactionFailure = e;
+                }
+            }, "Compaction");
+            compaction.start();
+        }
+    }
+
+    // Merges the segments live when it starts; segments flushed meanwhile come after them in the
+    // manifest, so the merged one simply replaces that prefix
+    private void compact() throws IOException, BookCatalogException {
+        List<String> inputs;
+        String name;
+        synchronized (manifestLock) {
+            inputs = new ArrayList<>(segments);
+            name = segmentName(nextSegment++);
+        }
+
+        // Equal titles come out in segment order
+        List<Cursor> cursors = new ArrayList<>();
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> {
+            int c = LibraryBookTracker.BY_TITLE.compare(a.head, b.head);
+            return (c != 0) ? c : Integer.compare(a.segment, b.segment);
+        });
+        long records = 0;
+        Path tmp = dir.resolve(name + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < inputs.size(); i++) {
+                Cursor c = new Cursor(i, Files.newBufferedReader(dir.resolve(inputs.get(i)), StandardCharsets.UTF_8));
+                cursors.add(c);
+                if (c.advance()) heads.add(c);
+            }
+            while (!heads.isEmpty()) {
+                Cursor c = heads.poll();
+                out.write(c.head.toCatalogLine());
+                out.newLine();
+                records++;
+                if (c.advance()) heads.add(c);
+            }
+        } finally {
+            for (Cursor c : cursors) c.in.close();
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (manifestLock) {
+            segments.subList(0, inputs.size()).clear();
+            segments.add(0, name);
+            writeManifest();
+        }
+        for (String input : inputs) Files.deleteIfExists(dir.resolve(input));
+        System.out.println("[Compaction] Merged " + inputs.size() + " segments into " + name + " ("
+                + records + " records).");
+    }
+
+    // One segment being read by compact(); segments only ever hold records that were validated
+    // on the way in
+    private static class Cursor {
+        final int segment;
+        final BufferedReader in;
+        Book head;
+
+        Cursor(int segment, BufferedReader in) {
+            this.segment = segment;
+            this.in = in;
+        }
+
+        boolean advance() throws IOException, BookCatalogException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty()) {
+                    head = LibraryBookTracker.parseAndValidateBookRecord(trimmed);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Waits for a running compaction, so the process never exits halfway through one
+    @Override
+    public void close() throws IOException {
+        Thread running;
+        synchronized (manifestLock) {
+            running = compaction;
+        }
+        try {
+            if (running != null) running.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction", e);
+        } finally {
+            if (wal != null) wal.close();
+        }
+
+        Exception failure = compactionFailure;
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure != null) throw new IOException("Compaction failed - " + failure.getMessage(), failure);
+    }
+
+    // Invalid lines are logged as a load would and left out of the first segment
+    private void importCatalog() throws IOException {
+        List<Book> imported = new ArrayList<>();
+        LibraryBookTracker.Stats importStats = new LibraryBookTracker.Stats();
+        LibraryBookTracker.streamValidBooks(catalogPath, logPath, importStats, imported::add);
+        stats.errorsEncountered.add(importStats.errorsEncountered.sum());
+        imported.sort(LibraryBookTracker.BY_TITLE);
+
+        synchronized (manifestLock) {
+            walGeneration = 1;
+            nextSegment = 1;
+            if (!imported.isEmpty()) {
+                String name = segmentName(nextSegment++);
+                writeSegment(name, imported);
+                segments.add(name);
+            }
+            writeManifest();
+        }
+        System.out.println("[Main] Imported " + catalogPath.getFileName() + " into " + dir.getFileName()
+                + " (" + imported.size() + " records).");
+    }
+
+    private void writeSegment(String name, List<Book> sorted) throws IOException {
+        List<String> lines = new ArrayList<>(sorted.size());
+        for (Book b : sorted) lines.add(b.toCatalogLine());
+        Path tmp = dir.resolve(name + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Caller holds manifestLock
+    private void writeManifest() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("wal " + walGeneration);
+        lines.add("next " + nextSegment);
+        for (String name : segments) lines.add("segment " + name);
+        Path tmp = dir.resolve("MANIFEST.tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve("MANIFEST"), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readManifest() throws IOException {
+        synchronized (manifestLock) {
+            segments.clear();
+            for (String line : Files.readAllLines(dir.resolve("MANIFEST"), StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ", 2);
+                if (parts.length != 2) continue;
+                try {
+                    switch (parts[0]) {
+                        case "wal":     walGeneration = Long.parseLong(parts[1]); break;
+                        case "next":    nextSegment = Integer.parseInt(parts[1]); break;
+                        case "segment": segments.add(parts[1]); break;
+                        default:        break;
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Corrupt " + dir.getFileName() + "/MANIFEST line: " + line);
+                }
+            }
+        }
+    }
+
+    private void removeUnreferencedFiles() throws IOException {
+        String currentWal = walPath(walGeneration).getFileName().toString();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                boolean stale = name.endsWith(".tmp")
+                        || (name.startsWith("segment-") && !segments.contains(name))
+                        || (name.startsWith("wal-") && !name.equals(currentWal));
+                if (stale) Files.delete(p);
+            }
+        }
+    }
+
+    private Path walPath(long generation) {
+        return dir.resolve("wal-" + generation + ".log");
+    }
+
+    private static String segmentName(int n) {
+        return String.format("segment-%06d.txt", n);
+    }
+}
@@ -0,0 +1,107 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Byte-level twin of LibraryBookTracker.parseAndValidateBookRecord for ASCII lines in a mapped
+// catalog region. Field offsets, the ISBN digit check and the copies value are all worked out
+// on the buffer itself; the only Strings created are the three that end up inside the Book
+// (plus the offending line when a record is rejected).
+// Lines with non-ASCII bytes must go through the String parser instead, because trim(),
+// Character.isDigit and Integer.parseInt all accept more than plain ASCII.
+class MappedRecordParser {
+    private final ByteBuffer buf;
+    private byte[] scratch = new byte[256];
+
+    MappedRecordParser(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    // Trimmed text of [from, to), only used for errors.log entries
+    String text(int from, int to) {
+        return string(from, to);
+    }
+
+    // [from, to) must already be trimmed, non-empty and pure ASCII
+    Book parse(int from, int to) throws BookCatalogException {
+        int c1 = indexOf(':', from, to);
+        int c2 = (c1 < 0) ? -1 : indexOf(':', c1 + 1, to);
+        int c3 = (c2 < 0) ? -1 : indexOf(':', c2 + 1, to);
+        if (c3 < 0 || indexOf(':', c3 + 1, to) >= 0) throw LibraryBookTracker.WRONG_FIELD_COUNT;
+
+        int titleFrom = skipBlanks(from, c1), titleTo = trimEnd(titleFrom, c1);
+        int authorFrom = skipBlanks(c1 + 1, c2), authorTo = trimEnd(authorFrom, c2);
+        int isbnFrom = skipBlanks(c2 + 1, c3), isbnTo = trimEnd(isbnFrom, c3);
+        int copiesFrom = skipBlanks(c3 + 1, to), copiesTo = trimEnd(copiesFrom, to);
+
+        if (titleFrom == titleTo) throw LibraryBookTracker.EMPTY_TITLE;
+        if (authorFrom == authorTo) throw LibraryBookTracker.EMPTY_AUTHOR;
+        if (!isExactly13Digits(isbnFrom, isbnTo)) throw LibraryBookTracker.BAD_ISBN;
+
+        long copies = parseInt(copiesFrom, copiesTo);
+        if (copies == Long.MIN_VALUE) throw LibraryBookTracker.BAD_COPIES;
+        if (copies <= 0) throw LibraryBookTracker.NON_POSITIVE_COPIES;
+
+        return new Book(string(titleFrom, titleTo), AuthorDictionary.canonical(string(authorFrom, authorTo)),
+                string(isbnFrom, isbnTo), (int) copies);
+    }
+
+    // String.trim() drops everything <= ' '
+    static boolean isBlank(byte b) {
+        return (b & 0xFF) <= ' ';
+    }
+
+    int skipBlanks(int from, int to) {
+        while (from < to && isBlank(buf.get(from))) from++;
+        return from;
+    }
+
+    int trimEnd(int from, int to) {
+        while (to > from && isBlank(buf.get(to - 1))) to--;
+        return to;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private boolean isExactly13Digits(int from, int to) {
+        if (to - from != 13) return false;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') return false;
+        }
+        return true;
+    }
+
+    // Integer.parseInt rules for ASCII input; Long.MIN_VALUE stands in for NumberFormatException
+    private long parseInt(int from, int to) {
+        if (from == to) return Long.MIN_VALUE;
+        boolean negative = false;
+        byte first = buf.get(from);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            from++;
+            if (from == to) return Long.MIN_VALUE;
+        }
+
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') return Long.MIN_VALUE;
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) return Long.MIN_VALUE;
+        }
+        if (negative) value = -value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) return Long.MIN_VALUE;
+        return value;
+    }
+
+    private String string(int from, int to) {
+        int len = to - from;
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        buf.get(from, scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.ISO_8859_1);
+    }
+}
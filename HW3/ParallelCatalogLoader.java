@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Splits a large catalog at newline boundaries, maps each chunk and parses it on the common
+// fork-join pool with MappedRecordParser.
+// Results come back per chunk, in file order, so the caller can merge them exactly as a
+// sequential read would (same books, same order of errors.log entries).
+class ParallelCatalogLoader {
+
+    // Below this size Files.readAllLines is cheap enough
+    static final long PARALLEL_THRESHOLD = 8L * 1024 * 1024;
+
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE - 8;
+    private static final int SCAN_BUFFER_SIZE = 8192;
+
+    static class ChunkResult {
+        final List<Book> books = new ArrayList<>();
+        final List<String> rejectedLines = new ArrayList<>();
+        final List<BookCatalogException> errors = new ArrayList<>();
+    }
+
+    // Even on a single core the mapped byte parser beats readAllLines on a catalog this size
+    static boolean shouldUse(Path catalogPath) throws IOException {
+        return Files.size(catalogPath) >= PARALLEL_THRESHOLD;
+    }
+
+    static List<ChunkResult> load(Path catalogPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(catalogPath, StandardOpenOption.READ)) {
+            long[] bounds = chunkBoundaries(channel);
+            ChunkResult[] results = new ChunkResult[bounds.length - 1];
+
+            try {
+                ForkJoinPool.commonPool().invoke(new ChunkTask(channel, bounds, results, 0, results.length));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            List<ChunkResult> ordered = new ArrayList<>(results.length);
+            for (ChunkResult r : results) ordered.add(r);
+            return ordered;
+        }
+    }
+
+    // Chunk i spans [bounds[i], bounds[i + 1]); every inner boundary sits just after a '\n'
+    private static long[] chunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long target = Math.max(MIN_CHUNK_SIZE, size / (parallelism * 4L) + 1);
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long start = 0;
+        while (start < size) {
+            long end = (size - start <= target) ? size : nextLineStart(channel, start + target, size);
+            if (end - start > MAX_CHUNK_SIZE) {
+                throw new IOException("Catalog line longer than " + MAX_CHUNK_SIZE + " bytes near offset " + start);
+            }
+            bounds.add(end);
+            start = end;
+        }
+
+        long[] out = new long[bounds.size()];
+        for (int i = 0; i < out.length; i++) out[i] = bounds.get(i);
+        return out;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long pos = from;
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final ChunkResult[] results;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] bounds, ChunkResult[] results, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(channel, bounds, results, from, mid),
+                          new ChunkTask(channel, bounds, results, mid, to));
+                return;
+            }
+            try {
+                results[from] = parseChunk(channel, bounds[from], bounds[from + 1]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static ChunkResult parseChunk(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        MappedRecordParser parser = new MappedRecordParser(buf);
+        CharsetDecoder decoder = null;
+
+        ChunkResult result = new ChunkResult();
+        int len = buf.limit();
+        int lineStart = 0;
+        int i = 0;
+        while (lineStart < len) {
+            // Line terminators as in BufferedReader.readLine: "\n", "\r" or "\r\n"
+            int high = 0;
+            byte b;
+            while (i < len && (b = buf.get(i)) != '\n' && b != '\r') {
+                high |= b;
+                i++;
+            }
+
+            if ((high & 0x80) == 0) {
+                acceptAsciiLine(parser, lineStart, i, result);
+            } else {
+                // Same strictness as Files.readAllLines: malformed UTF-8 is an I/O failure, not a bad record
+                if (decoder == null) {
+                    decoder = StandardCharsets.UTF_8.newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPORT)
+                            .onUnmappableCharacter(CodingErrorAction.REPORT);
+                }
+                acceptLine(decoder.decode(buf.slice(lineStart, i - lineStart)).toString(), result);
+            }
+
+            if (i < len && buf.get(i) == '\r' && i + 1 < len && buf.get(i + 1) == '\n') i++;
+            i++;
+            lineStart = i;
+        }
+        return result;
+    }
+
+    private static void acceptAsciiLine(MappedRecordParser parser, int from, int to, ChunkResult result) {
+        from = parser.skipBlanks(from, to);
+        to = parser.trimEnd(from, to);
+        if (from == to) return;
+
+        try {
+            result.books.add(parser.parse(from, to));
+        } catch (BookCatalogException e) {
+            result.rejectedLines.add(parser.text(from, to));
+            result.errors.add(e);
+        }
+    }
+
+    private static void acceptLine(String line, ChunkResult result) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty()) return;
+
+        try {
+            result.books.add(LibraryBookTracker.parseAndValidateBookRecord(trimmed));
+        } catch (BookCatalogException e) {
+            result.rejectedLines.add(trimmed);
+            result.errors.add(e);
+        }
+    }
+}
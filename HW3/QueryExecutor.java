@@ -0,0 +1,84 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs a list of operations on a pool of --workers threads. ISBN lookups and keyword searches
+// only read the catalog and its indexes, so a run of them executes concurrently; an add changes
+// the list and the indexes, so it waits for every read before it and then runs alone.
+// Each operation prints into its own buffer and the buffers are written to out in operation
+// order, so the output is exactly what OperationAnalyzerTask would print running them in turn.
+class QueryExecutor {
+    // Finished-but-unprinted results held per worker before submitting more
+    private static final int PENDING_PER_WORKER = 16;
+
+    private final Path catalogPath;
+    private final Path logPath;
+    private final List<Book> books;
+    private final IsbnIndex isbnIndex;
+    private final TitleTrigramIndex titleIndex;
+    private final LibraryBookTracker.Stats stats;
+    private final LibraryBookTracker.Options options;
+
+    QueryExecutor(Path catalogPath, Path logPath, List<Book> books, IsbnIndex isbnIndex,
+                  TitleTrigramIndex titleIndex, LibraryBookTracker.Stats stats,
+                  LibraryBookTracker.Options options) {
+        this.catalogPath = catalogPath;
+        this.logPath = logPath;
+        this.books = books;
+        this.isbnIndex = isbnIndex;
+        this.titleIndex = titleIndex;
+        this.stats = stats;
+        this.options = options;
+    }
+
+    void execute(List<String> ops, PrintStream out) throws InterruptedException, ExecutionException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(options.workers, r -> {
+            Thread t = new Thread(r, "Query-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int maxPending = options.workers * PENDING_PER_WORKER;
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < ops.size(); i++) {
+                String op = ops.get(i);
+                if (LibraryBookTracker.looksLikeNewRecord(op)) {
+                    drain(pending, out);
+                    out.print(run(i, ops.size(), op));
+                    continue;
+                }
+                if (pending.size() >= maxPending) out.print(pending.poll().get());
+                int index = i;
+                pending.add(pool.submit(() -> run(index, ops.size(), op)));
+            }
+            drain(pending, out);
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+    }
+
+    private static void drain(ArrayDeque<Future<String>> pending, PrintStream out)
+            throws InterruptedException, ExecutionException {
+        while (!pending.isEmpty()) out.print(pending.poll().get());
+    }
+
+    private String run(int i, int count, String op) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+        LibraryBookTracker.OperationAnalyzerTask.printOperationHeading(out, i, count, op);
+        new LibraryBookTracker.OperationAnalyzerTask(catalogPath, logPath, books, isbnIndex, titleIndex,
+                stats, options, op).execute(out);
+        out.flush();
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// --shards=N: the catalog lives in N files next to catalog.txt, "catalog.shard-<i>-of-<N>.txt",
+// and every record sits in the shard its ISBN hashes to. Each shard is loaded by its own
+// FileReaderTask thread into its own list and indexes. An ISBN lookup or an add only touches
+// the owning shard (an add rewrites just that file); a keyword search runs on every shard and
+// the per-shard results, each already in title order, are merged. Equal titles from different
+// shards come out in shard order, and so do rejected lines in errors.log (grouped by shard, not in
+// catalog.txt order).
+//
+// The first sharded run splits an existing catalog.txt into the shards and then leaves it alone.
+class ShardedCatalog {
+
+    static class Shard {
+        final Path path;
+        final List<Book> books;
+        final IsbnIndex isbnIndex = new IsbnIndex();
+        final TitleTrigramIndex titleIndex;
+
+        Shard(Path path, List<Book> books, boolean indexTitles) {
+            this.path = path;
+            this.books = books;
+            this.titleIndex = new TitleTrigramIndex(indexTitles);
+        }
+    }
+
+    private final Shard[] shards;
+    private final Path logPath;
+    private final LibraryBookTracker.Stats stats;
+    private final LibraryBookTracker.Options options;
+
+    ShardedCatalog(Path catalogPath, Path logPath, LibraryBookTracker.Stats stats,
+                   LibraryBookTracker.Options options, boolean indexTitles) throws IOException, BookCatalogException {
+        this.logPath = logPath;
+        this.stats = stats;
+        this.options = options;
+        this.shards = new Shard[options.shards];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(shardPath(catalogPath, i, shards.length),
+                    options.compactStore ? new CompactCatalog() : new ArrayList<>(), indexTitles);
+        }
+        createShards(catalogPath);
+    }
+
+    static Path shardPath(Path catalogPath, int i, int count) {
+        String name = catalogPath.getFileName().toString();
+        String stem = name.substring(0, name.length() - ".txt".length());
+        return catalogPath.resolveSibling(stem + ".shard-" + i + "-of-" + count + ".txt");
+    }
+
+    // Duplicates of an ISBN always share a shard: ISBNs written with non-ASCII digits pack to the
+    // same key as their ASCII form, exactly as IsbnIndex groups them
+    static int shardOf(String isbn, int count) {
+        long packed = IsbnIndex.pack(isbn);
+        long h = ((packed >= 0) ? packed : isbn.hashCode()) * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (h ^ (h >>> 32)), count);
+    }
+
+    int size() {
+        int n = 0;
+        for (Shard s : shards) n += s.books.size();
+        return n;
+    }
+
+    // One FileReaderTask thread per shard; they share the Stats adders. Each logs its rejects to
+    // its own file, which is copied into errors.log after the join, so the log holds shard 0's
+    // rejects (in file order), then shard 1's, and so on, the same on every run.
+    void load() throws IOException, InterruptedException {
+        Path[] shardLogs = new Path[shards.length];
+        Thread[] readers = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            Shard s = shards[i];
+            shardLogs[i] = logPath.resolveSibling(logPath.getFileName() + ".shard-" + i + ".tmp");
+            Files.deleteIfExists(shardLogs[i]);
+            readers[i] = new Thread(new LibraryBookTracker.FileReaderTask(s.path, shardLogs[i], s.books, s.isbnIndex,
+                    stats, options), "FileReader-" + i);
+            readers[i].start();
+        }
+        for (Thread t : readers) t.join();
+
+        ErrorLogger.flush();
+        for (Path shardLog : shardLogs) {
+            if (!Files.exists(shardLog)) continue;
+            for (String line : Files.readAllLines(shardLog, StandardCharsets.UTF_8)) ErrorLogger.log(logPath, line);
+            Files.delete(shardLog);
+        }
+    }
+
+    void writeAll() throws IOException {
+        for (Shard s : shards) {
+            LibraryBookTracker.writeCatalog(s.path, s.books);
+            if (options.snapshot) LibraryBookTracker.saveSnapshot(s.path, logPath, s.books, 0);
+        }
+    }
+
+    // Shard owning a Title:Author:ISBN:Copies line; a line without a valid ISBN has no owner and
+    // goes to shard 0
+    int shardOfRecord(String record) {
+        String[] fields = record.split(":", -1);
+        if (fields.length != 4) return 0;
+        String isbn = fields[2].trim();
+        return LibraryBookTracker.isExactly13Digits(isbn) ? shardOf(isbn, shards.length) : 0;
+    }
+
+    // Same output and Stats as OperationAnalyzerTask on an unsharded catalog: adds and ISBN
+    // lookups are handed to an OperationAnalyzerTask over the owning shard (which also reports
+    // an invalid record), keyword searches are merged across all of them
+    void execute(String op, PrintStream out) {
+        if (LibraryBookTracker.looksLikeNewRecord(op)) {
+            run(shards[shardOfRecord(op)], op, out);
+        } else if (LibraryBookTracker.isExactly13Digits(op)) {
+            run(shards[shardOf(op, shards.length)], op, out);
+        } else {
+            List<Book> matches = search(op.toLowerCase());
+            LibraryBookTracker.printHeader(out);
+            for (Book b : matches) LibraryBookTracker.printBookRow(out, b);
+            stats.searchResults.add(matches.size());
+        }
+    }
+
+    // Scatter to every shard in parallel, then gather with a k-way merge
+    List<Book> search(String keyword) {
+        List<List<Book>> perShard = IntStream.range(0, shards.length).parallel()
+                .mapToObj(i -> shards[i].titleIndex.search(shards[i].books, keyword))
+                .collect(Collectors.toList());
+
+        return LibraryBookTracker.mergeAllByTitle(perShard);
+    }
+
+    private void run(Shard shard, String op, PrintStream out) {
+        new LibraryBookTracker.OperationAnalyzerTask(shard.path, logPath, shard.books, shard.isbnIndex,
+                shard.titleIndex, stats, options, op).execute(out);
+    }
+
+    // Missing shard files are created empty. If none existed, the records of catalog.txt are
+    // distributed over them first, raw lines in file order; lines without a valid ISBN go to
+    // shard 0, where the load reports them just as loading catalog.txt would have.
+    //
+    // The split writes "<shard>.tmp" files and renames them only once every one is closed, shard 0
+    // first: an interrupted split leaves no shard files and is redone, and an existing shard 0
+    // means every remaining .tmp is complete and just needs its rename.
+    private void createShards(Path catalogPath) throws IOException, BookCatalogException {
+        if (Files.exists(shards[0].path)) {
+            for (Shard s : shards) {
+                Path tmp = tmpPath(s.path);
+                if (Files.exists(tmp)) Files.move(tmp, s.path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        boolean anyExists = false;
+        for (Shard s : shards) anyExists |= Files.exists(s.path);
+        if (anyExists) {
+            for (Shard s : shards) if (!Files.exists(s.path)) Files.createFile(s.path);
+            return;
+        }
+
+        String stem = shards[0].path.getFileName().toString();
+        stem = stem.substring(0, stem.indexOf(".shard-"));
+        Path dir = catalogPath.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> other = Files.newDirectoryStream(dir, stem + ".shard-*-of-*.txt")) {
+            for (Path p : other) {
+                throw new InvalidOptionException("Catalog is already sharded differently (found "
+                        + p.getFileName() + "); use the same --shards count");
+            }
+        }
+
+        // Closing flushes, so a close that fails also leaves the split incomplete
+        BufferedWriter[] writers = new BufferedWriter[shards.length];
+        boolean complete = false;
+        try {
+            try (BufferedReader in = Files.newBufferedReader(catalogPath, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < shards.length; i++) {
+                    writers[i] = Files.newBufferedWriter(tmpPath(shards[i].path), StandardCharsets.UTF_8);
+                }
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String trimmed = line.trim();
+                    if (trimmed.isEmpty()) continue;
+                    int owner = shardOfRecord(trimmed);
+                    writers[owner].write(line);
+                    writers[owner].newLine();
+                }
+            } finally {
+                for (BufferedWriter w : writers) {
+                    if (w != null) w.close();
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                for (Shard s : shards) Files.deleteIfExists(tmpPath(s.path));
+            }
+        }
+        for (Shard s : shards) Files.move(tmpPath(s.path), s.path, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("[Main] Split " + catalogPath.getFileName() + " into " + shards.length + " shards.");
+    }
+
+    private static Path tmpPath(Path shardPath) {
+        return shardPath.resolveSibling(shardPath.getFileName() + ".tmp");
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Inverted index from every 3-char window of a lowercased title to the positions (in the
+// title-sorted book list) of the titles containing it. A keyword search intersects the posting
+// lists of the keyword's trigrams and only runs contains() on the surviving candidates, so it
+// returns the same rows, in the same order, as a full scan.
+// Searches may run concurrently (QueryExecutor); the lazy build and invalidate() synchronize, and
+// a search then only reads the posting map it got back.
+// Building costs several full scans, so an index that will only answer one search is created
+// with build = false and just scans.
+class TitleTrigramIndex {
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final boolean build;
+
+    private Map<Long, int[]> postings = new HashMap<>();
+    private List<Book> indexed;   // the list the positions refer to; null until built
+    private int indexedSize;
+
+    TitleTrigramIndex() {
+        this(true);
+    }
+
+    TitleTrigramIndex(boolean build) {
+        this.build = build;
+    }
+
+    // Positions shift whenever the list is reloaded or re-sorted
+    synchronized void invalidate() {
+        indexed = null;
+        postings = new HashMap<>();
+    }
+
+    // Books whose lowercased title contains the (already lowercased) keyword, in list order
+    List<Book> search(List<Book> books, String keyword) {
+        List<Book> matches = new ArrayList<>();
+        if (!build || keyword.length() < 3) {
+            // Not indexed, or nothing to look up; every title is a candidate
+            for (Book b : books) {
+                if (b.getTitleKey().contains(keyword)) matches.add(b);
+            }
+            return matches;
+        }
+
+        int[] candidates = candidates(postingsFor(books), keyword);
+        for (int pos : candidates) {
+            Book b = books.get(pos);
+            if (b.getTitleKey().contains(keyword)) matches.add(b);
+        }
+        return matches;
+    }
+
+    // Builds now rather than on the first search (ConcurrentCatalog, before publishing a snapshot)
+    void prepare(List<Book> books) {
+        if (build) postingsFor(books);
+    }
+
+    private synchronized Map<Long, int[]> postingsFor(List<Book> books) {
+        if (indexed != books || indexedSize != books.size()) build(books);
+        return postings;
+    }
+
+    private void build(List<Book> books) {
+        Map<Long, PositionList> building = new HashMap<>();
+        for (int pos = 0; pos < books.size(); pos++) {
+            String title = books.get(pos).getTitleKey();
+            for (int i = 0; i + 3 <= title.length(); i++) {
+                // A title is visited once, in order, so a repeated trigram only has to check the tail
+                building.computeIfAbsent(trigram(title, i), k -> new PositionList()).addIfNew(pos);
+            }
+        }
+
+        Map<Long, int[]> built = new HashMap<>(building.size() * 2);
+        for (Map.Entry<Long, PositionList> e : building.entrySet()) {
+            built.put(e.getKey(), e.getValue().toArray());
+        }
+        postings = built;
+        indexed = books;
+        indexedSize = books.size();
+    }
+
+    private static int[] candidates(Map<Long, int[]> postings, String keyword) {
+        int count = keyword.length() - 2;
+        int[][] lists = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int[] list = postings.get(trigram(keyword, i));
+            if (list == null) return NO_POSITIONS;
+            lists[i] = list;
+        }
+
+        // Shortest list first keeps every intersection step as small as possible
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static class PositionList {
+        private int[] data = new int[4];
+        private int size;
+
+        void addIfNew(int pos) {
+            if (size > 0 && data[size - 1] == pos) return;
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = pos;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Micro-benchmarks for the parse, search and write paths of LibraryBookTracker.
+//
+//   javac -d out *.java HW3/*.java bench/*.java
+//   java -Xmx8g -cp out CatalogBenchmark [sizes]      e.g. 1000,10000,100000,1000000,10000000
+//
+// Every benchmark warms up, then reports the mean time per operation over the measured
+// iterations. Results are fed to a sink so the JIT can't drop the work. Numbers are only
+// comparable between runs on the same machine and JVM flags.
+public class CatalogBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final String[] WORDS = {
+            "river", "shadow", "garden", "empire", "winter", "silver", "ghost", "ocean", "night", "glass"
+    };
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = (args.length > 0) ? parseSizes(args[0]) : DEFAULT_SIZES;
+        Path workDir = Files.createTempDirectory("catalog-bench");
+
+        System.out.printf("%-28s %12s %16s%n", "Benchmark", "Rows", "ns/op");
+        for (int size : sizes) {
+            List<String> lines = generateLines(size, new Random(42));
+            List<Book> books = new ArrayList<>(size);
+            for (String line : lines) books.add(LibraryBookTracker.parseAndValidateBookRecord(line));
+            books.sort(LibraryBookTracker.BY_TITLE);
+
+            runParse(size, lines);
+            runIsbnCheck(size, lines);
+            runOperations(size, books, workDir);
+            runWrite(size, books, workDir);
+        }
+    }
+
+    private static void runParse(int size, List<String> lines) {
+        List<String> invalid = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) invalid.add(corrupt(lines.get(i), i));
+
+        report("parse.valid", size, lines.size(), () -> {
+            for (String line : lines) sink = LibraryBookTracker.parseAndValidateBookRecord(line);
+        });
+        report("parse.invalid", size, invalid.size(), () -> {
+            for (String line : invalid) {
+                try {
+                    sink = LibraryBookTracker.parseAndValidateBookRecord(line);
+                } catch (BookCatalogException e) {
+                    sink = e;
+                }
+            }
+        });
+    }
+
+    private static void runIsbnCheck(int size, List<String> lines) {
+        String[] isbns = new String[lines.size()];
+        for (int i = 0; i < isbns.length; i++) isbns[i] = lines.get(i).split(":")[2];
+
+        report("isExactly13Digits", size, isbns.length, () -> {
+            int ok = 0;
+            for (String isbn : isbns) if (LibraryBookTracker.isExactly13Digits(isbn)) ok++;
+            sink = ok;
+        });
+    }
+
+    private static void runOperations(int size, List<Book> books, Path workDir) {
+        IsbnIndex isbnIndex = new IsbnIndex(books.size());
+        for (Book b : books) isbnIndex.add(b);
+        TitleTrigramIndex titleIndex = new TitleTrigramIndex();
+        LibraryBookTracker.Options options = new LibraryBookTracker.Options();
+        Path catalogPath = workDir.resolve("ops.txt");
+        Path logPath = workDir.resolve("errors.log");
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+        String isbn = books.get(books.size() / 2).getIsbn();
+        report("operation.isbn", size, 1, () -> {
+            LibraryBookTracker.Stats stats = new LibraryBookTracker.Stats();
+            new LibraryBookTracker.OperationAnalyzerTask(catalogPath, logPath, books, isbnIndex,
+                    titleIndex, stats, options, isbn).execute(discard);
+            sink = stats;
+        });
+        // Warm: the index built during warmup answers every measured search, as under --serve
+        report("operation.keyword", size, 1, () -> {
+            LibraryBookTracker.Stats stats = new LibraryBookTracker.Stats();
+            new LibraryBookTracker.OperationAnalyzerTask(catalogPath, logPath, books, isbnIndex,
+                    titleIndex, stats, options, "ghost ocean").execute(discard);
+            sink = stats;
+        });
+        // Cold: a fresh index per search, so its build is timed too
+        report("operation.keyword.cold", size, 1, () -> {
+            LibraryBookTracker.Stats stats = new LibraryBookTracker.Stats();
+            new LibraryBookTracker.OperationAnalyzerTask(catalogPath, logPath, books, isbnIndex,
+                    new TitleTrigramIndex(), stats, options, "ghost ocean").execute(discard);
+            sink = stats;
+        });
+        // What a one-search CLI run does: no index, a contains() scan
+        report("operation.keyword.scan", size, 1, () -> {
+            LibraryBookTracker.Stats stats = new LibraryBookTracker.Stats();
+            new LibraryBookTracker.OperationAnalyzerTask(catalogPath, logPath, books, isbnIndex,
+                    new TitleTrigramIndex(false), stats, options, "ghost ocean").execute(discard);
+            sink = stats;
+        });
+    }
+
+    private static void runWrite(int size, List<Book> books, Path workDir) throws IOException {
+        Path catalogPath = workDir.resolve("write.txt");
+        Files.deleteIfExists(catalogPath);
+        Files.createFile(catalogPath);
+
+        report("writeCatalog", size, 1, () -> {
+            try {
+                LibraryBookTracker.writeCatalog(catalogPath, books);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Files.delete(catalogPath);
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static void report(String name, int size, int opsPerIteration, Body body) {
+        try {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) body.run();
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) body.run();
+            long elapsed = System.nanoTime() - start;
+            double nsPerOp = (double) elapsed / MEASURED_ITERATIONS / opsPerIteration;
+            System.out.printf("%-28s %12d %16.1f%n", name, size, nsPerOp);
+        } catch (Exception e) {
+            System.out.printf("%-28s %12d %16s%n", name, size, "failed: " + e.getMessage());
+        }
+    }
+
+    private static List<String> generateLines(int size, Random rnd) {
+        List<String> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String title = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)]
+                    + " " + i;
+            String author = "Author " + rnd.nextInt(5_000);
+            String isbn = String.format("978%010d", i);
+            lines.add(title + ":" + author + ":" + isbn + ":" + (1 + rnd.nextInt(20)));
+        }
+        return lines;
+    }
+
+    // Cycles through the ways a catalog line can be rejected
+    private static String corrupt(String line, int i) {
+        String[] f = line.split(":");
+        switch (i % 4) {
+            case 0:  return f[0] + ":" + f[1] + ":" + f[2];
+            case 1:  return f[0] + "::" + f[2] + ":" + f[3];
+            case 2:  return f[0] + ":" + f[1] + ":" + f[2].substring(1) + "X:" + f[3];
+            default: return f[0] + ":" + f[1] + ":" + f[2] + ":many";
+        }
+    }
+
+    private static int[] parseSizes(String arg) {
+        String[] parts = arg.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) sizes[i] = Integer.parseInt(parts[i].trim());
+        return sizes;
+    }
+}